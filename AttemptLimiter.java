@@ -0,0 +1,114 @@
+package ru.bont777.bridge;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Ограничитель попыток по ключу (логин, IP) со скользящим окном поверх count-min sketch.
+ * Память фиксирована (2 окна × DEPTH строк × width ячеек) и не зависит от числа разных ключей.
+ * Ячейка хранит номер окна в старших 32 битах и счётчик в младших, поэтому устаревшие значения
+ * обнуляются лениво при следующей записи, без отдельной очистки. Оценка count-min может только
+ * завышать число попыток (коллизии), но не занижать; ширину строки стоит выбирать с запасом
+ * относительно числа разных ключей за окно, делённого на лимит.
+ * <p>
+ * Проверка и увеличение не атомарны между собой: при гонке лимит может быть превышен
+ * на число одновременных запросов по одному ключу.
+ */
+public class AttemptLimiter {
+
+    private static final int DEPTH = 4;
+
+    private final int limit;
+    private final long windowMs;
+    private final int mask;
+    private final int width;
+    // [чётность окна][строка][столбец]
+    private final AtomicLongArray cells;
+    // Случайное зерно: подобрать коллизии с чужим логином заранее нельзя
+    private final long seed = ThreadLocalRandom.current().nextLong();
+
+    /**
+     * @param limit    попыток за окно (0 — без ограничения)
+     * @param windowMs длина окна
+     * @param width    ячеек в строке, округляется вверх до степени двойки
+     */
+    public AttemptLimiter(int limit, long windowMs, int width) {
+        this.limit = limit;
+        this.windowMs = Math.max(1, windowMs);
+        int requested = Math.max(64, width);
+        this.width = Integer.bitCount(requested) == 1 ? requested : Integer.highestOneBit(requested) << 1;
+        this.mask = this.width - 1;
+        this.cells = new AtomicLongArray(2 * DEPTH * this.width);
+    }
+
+    /**
+     * Учитывает permits попыток, если лимит ещё не исчерпан.
+     * @return false — ключ превысил лимит, попытка не засчитана
+     */
+    public boolean tryAcquire(String key, int permits, long nowMs) {
+        if (limit <= 0) {
+            return true;
+        }
+        long window = nowMs / windowMs;
+        long h1 = hash(key, seed);
+        long h2 = hash(key, ~seed) | 1;
+        int current = (int) (window & 1) * DEPTH * width;
+        int previous = (int) ((window - 1) & 1) * DEPTH * width;
+
+        // Скользящее окно: текущее окно плюс доля предыдущего, ещё попадающая в интервал
+        double previousWeight = 1.0 - (double) (nowMs % windowMs) / windowMs;
+        long estimateCurrent = Long.MAX_VALUE;
+        long estimatePrevious = Long.MAX_VALUE;
+        for (int row = 0; row < DEPTH; row++) {
+            int column = (int) (h1 + row * h2) & mask;
+            int offset = row * width + column;
+            estimateCurrent = Math.min(estimateCurrent, count(cells.get(current + offset), window));
+            estimatePrevious = Math.min(estimatePrevious, count(cells.get(previous + offset), window - 1));
+        }
+        if (estimateCurrent + estimatePrevious * previousWeight + permits > limit) {
+            return false;
+        }
+        // Консервативное обновление: ячейка поднимается только до новой оценки ключа,
+        // а не на permits — так коллизии меньше завышают счётчики соседних ключей
+        long target = Math.min(0x7FFF_FFFFL, estimateCurrent + permits);
+        for (int row = 0; row < DEPTH; row++) {
+            int column = (int) (h1 + row * h2) & mask;
+            raise(current + row * width + column, window, target);
+        }
+        return true;
+    }
+
+    /** Длина окна в секундах (для Retry-After) */
+    public long getWindowSeconds() {
+        return Math.max(1, windowMs / 1000);
+    }
+
+    private void raise(int index, long window, long target) {
+        long next = ((window & 0xFFFF_FFFFL) << 32) | target;
+        while (true) {
+            long value = cells.get(index);
+            if (count(value, window) >= target || cells.compareAndSet(index, value, next)) {
+                return;
+            }
+        }
+    }
+
+    private static long count(long value, long window) {
+        return (value >>> 32) == (window & 0xFFFF_FFFFL) ? value & 0xFFFF_FFFFL : 0;
+    }
+
+    // FNV-1a по символам с перемешиванием fmix64 (MurmurHash3)
+    private static long hash(String key, long seed) {
+        long h = 0xcbf29ce484222325L ^ seed;
+        for (int i = 0; i < key.length(); i++) {
+            h ^= key.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
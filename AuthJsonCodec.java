@@ -0,0 +1,161 @@
+package ru.bont777.bridge;
+
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Потоковый кодек фиксированной схемы /api/baronessauth: запрос {login,password} читается
+ * JsonReader прямо из тела запроса, ответ {status,action,name,jwt,error} пишется в UTF-8
+ * через буфер из небольшого пула без промежуточных JsonObject/String.
+ * Остальные полезные нагрузки по-прежнему обрабатывает GsonMapper.
+ */
+public final class AuthJsonCodec {
+
+    private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+    private static final int MAX_RETAINED_BUFFER = 16 * 1024;
+
+    private static final InstancePool<Buffer> BUFFERS = new InstancePool<>(Buffer::new);
+
+    private AuthJsonCodec() {
+    }
+
+    /** Чтение {login,password}; неизвестные поля пропускаются, null и отсутствие поля дают null */
+    public static AuthService.Credentials readCredentials(InputStream in) throws IOException {
+        String login = null;
+        String password = null;
+        JsonReader reader = new JsonReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String field = reader.nextName();
+            if (reader.peek() == JsonToken.NULL) {
+                reader.nextNull();
+            } else if ("login".equals(field)) {
+                login = reader.nextString();
+            } else if ("password".equals(field)) {
+                password = reader.nextString();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        return new AuthService.Credentials(login, password);
+    }
+
+    /** Запись ответа одним вызовом write() */
+    public static void writeResult(AuthResult result, OutputStream out) throws IOException {
+        Buffer buffer = BUFFERS.acquire();
+        try {
+            buffer.reset();
+            buffer.put((byte) '{');
+            boolean first = true;
+            first = field(buffer, "status", result.status, first);
+            first = field(buffer, "action", result.action, first);
+            first = field(buffer, "name", result.name, first);
+            first = field(buffer, "jwt", result.jwt, first);
+            field(buffer, "error", result.error, first);
+            buffer.put((byte) '}');
+            out.write(buffer.bytes, 0, buffer.length);
+            out.flush();
+        } finally {
+            buffer.trim();
+            BUFFERS.release(buffer);
+        }
+    }
+
+    private static boolean field(Buffer buffer, String key, String value, boolean first) {
+        if (value == null) {
+            return first;
+        }
+        if (!first) {
+            buffer.put((byte) ',');
+        }
+        buffer.put((byte) '"');
+        buffer.putAscii(key);
+        buffer.put((byte) '"');
+        buffer.put((byte) ':');
+        buffer.putString(value);
+        return false;
+    }
+
+    /** Растущий байтовый буфер из пула */
+    private static final class Buffer {
+        byte[] bytes = new byte[512];
+        int length;
+
+        void reset() {
+            length = 0;
+        }
+
+        void trim() {
+            // Не держим в пуле буфер от аномально большого ответа
+            if (bytes.length > MAX_RETAINED_BUFFER) {
+                bytes = new byte[512];
+            }
+        }
+
+        void ensure(int extra) {
+            if (length + extra > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + extra));
+            }
+        }
+
+        void put(byte b) {
+            ensure(1);
+            bytes[length++] = b;
+        }
+
+        void putAscii(String s) {
+            ensure(s.length());
+            for (int i = 0; i < s.length(); i++) {
+                bytes[length++] = (byte) s.charAt(i);
+            }
+        }
+
+        /** Строка JSON в кавычках с экранированием и кодированием UTF-8 */
+        void putString(String s) {
+            ensure(s.length() * 3 + 2);
+            bytes[length++] = '"';
+            for (int i = 0; i < s.length(); i++) {
+                char c = s.charAt(i);
+                if (c == '"' || c == '\\') {
+                    ensure(2 + (s.length() - i) * 3);
+                    bytes[length++] = '\\';
+                    bytes[length++] = (byte) c;
+                } else if (c < 0x20) {
+                    ensure(6 + (s.length() - i) * 3);
+                    bytes[length++] = '\\';
+                    bytes[length++] = 'u';
+                    bytes[length++] = '0';
+                    bytes[length++] = '0';
+                    bytes[length++] = HEX[c >> 4];
+                    bytes[length++] = HEX[c & 0xF];
+                } else if (c < 0x80) {
+                    bytes[length++] = (byte) c;
+                } else if (c < 0x800) {
+                    bytes[length++] = (byte) (0xC0 | (c >> 6));
+                    bytes[length++] = (byte) (0x80 | (c & 0x3F));
+                } else if (Character.isHighSurrogate(c) && i + 1 < s.length() && Character.isLowSurrogate(s.charAt(i + 1))) {
+                    int cp = Character.toCodePoint(c, s.charAt(++i));
+                    bytes[length++] = (byte) (0xF0 | (cp >> 18));
+                    bytes[length++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+                    bytes[length++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+                    bytes[length++] = (byte) (0x80 | (cp & 0x3F));
+                } else if (Character.isSurrogate(c)) {
+                    bytes[length++] = '?';
+                } else {
+                    bytes[length++] = (byte) (0xE0 | (c >> 12));
+                    bytes[length++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                    bytes[length++] = (byte) (0x80 | (c & 0x3F));
+                }
+            }
+            bytes[length++] = '"';
+        }
+    }
+}
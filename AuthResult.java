@@ -0,0 +1,63 @@
+package ru.bont777.bridge;
+
+/**
+ * Ответ /api/baronessauth: {status, action, name, jwt, error}; отсутствующие поля равны null
+ * и не выводятся (ни AuthJsonCodec, ни Gson в пакетном ответе).
+ */
+public final class AuthResult {
+
+    public static final String STATUS_OK = "OK";
+    public static final String STATUS_ERROR = "error";
+    public static final String WRONG_PASSWORD = "Неверный пароль";
+    public static final String TOO_MANY_ATTEMPTS = "Слишком много попыток входа, повторите позже";
+
+    final String status;
+    final String action;
+    final String name;
+    final String jwt;
+    final String error;
+
+    private AuthResult(String status, String action, String name, String jwt, String error) {
+        this.status = status;
+        this.action = action;
+        this.name = name;
+        this.jwt = jwt;
+        this.error = error;
+    }
+
+    static AuthResult registered(String name, String jwt) {
+        return new AuthResult(STATUS_OK, "register", name, jwt, null);
+    }
+
+    static AuthResult loggedIn(String name, String jwt) {
+        return new AuthResult(STATUS_OK, "login", name, jwt, null);
+    }
+
+    static AuthResult wrongPassword(String name) {
+        return new AuthResult(STATUS_ERROR, null, name, null, WRONG_PASSWORD);
+    }
+
+    static AuthResult error(String name, String error) {
+        return new AuthResult(STATUS_ERROR, null, name, null, error);
+    }
+
+    public String getStatus() {
+        return status;
+    }
+
+    public String getAction() {
+        return action;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getJwt() {
+        return jwt;
+    }
+
+    public String getError() {
+        return error;
+    }
+}
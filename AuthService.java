@@ -0,0 +1,527 @@
+package ru.bont777.bridge;
+
+import io.github.blackbaroness.baronessauth.bungee.api.BaronessAuthBungeeAPI;
+import io.github.blackbaroness.baronessauth.bungee.api.model.ProfilePassword;
+import io.github.blackbaroness.baronessauth.bungee.api.model.entity.PlayerProfile;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Supplier;
+
+/**
+ * Асинхронная регистрация/вход через BaronessAuth.
+ * Транзакции короткие, хеширование пароля выполняется вне транзакции,
+ * ни один этап не блокирует вызывающий поток.
+ */
+public class AuthService {
+
+    private static final int REGISTRATION_STRIPES = 1024;
+
+    private final BridgeContext plugin;
+    private final BaronessAuthBungeeAPI api;
+    private final JwtManager jwtManager;
+    private final HashingStage hashingStage;
+    private final ProfileIndex profileIndex;
+
+    private final LatencyHistogram profileLookupTime;
+    private final LatencyHistogram passwordHashTime;
+    private final LatencyHistogram passwordVerifyTime;
+    private final LongAdder registrations;
+    private final LongAdder logins;
+    private final LongAdder wrongPasswords;
+    private final LongAdder coalesced;
+
+    // Выполняющиеся запросы по логину и хешу пароля: одинаковые повторы ждут общий результат
+    private final ConcurrentHashMap<FlightKey, CompletableFuture<AuthResult>> inFlight = new ConcurrentHashMap<>();
+    // Хвосты очередей транзакций создания по полосам имён: создание одного имени не идёт параллельно
+    private final AtomicReferenceArray<CompletableFuture<Void>> registrationTails = new AtomicReferenceArray<>(REGISTRATION_STRIPES);
+
+    public AuthService(BridgeContext plugin, BaronessAuthBungeeAPI api, JwtManager jwtManager) {
+        this.plugin = plugin;
+        this.api = api;
+        this.jwtManager = jwtManager;
+        ConfigManager config = plugin.getConfigManager();
+        MetricsRegistry metrics = plugin.getMetrics();
+        this.hashingStage = new HashingStage(
+                config.getInt("hashing_parallelism", Math.max(1, Runtime.getRuntime().availableProcessors() / 2)),
+                config.getInt("hashing_queue_size", 256),
+                metrics.histogram("hashing_queue_wait_seconds", "Ожидание в очереди хеширования"));
+        this.profileLookupTime = metrics.histogram("profile_lookup_seconds", "Поиск профиля в BaronessAuth");
+        this.passwordHashTime = metrics.histogram("password_hash_seconds", "Хеширование пароля при регистрации");
+        this.passwordVerifyTime = metrics.histogram("password_verify_seconds", "Проверка пароля при входе");
+        this.registrations = metrics.counter("auth_register_total", "Зарегистрировано пользователей");
+        this.logins = metrics.counter("auth_login_total", "Успешных входов");
+        this.wrongPasswords = metrics.counter("auth_wrong_password_total", "Отказов из-за неверного пароля");
+        this.coalesced = metrics.counter("auth_coalesced_total", "Запросов, присоединённых к такому же выполняющемуся");
+
+        this.profileIndex = new ProfileIndex(config.getInt("profile_index_bloom_bits", 1 << 20));
+        if (config.getBoolean("profile_index_enabled", true)) {
+            profileIndex.startLoading(plugin);
+        }
+        // Профиль, созданный через мост на другом прокси, здесь тоже больше не «заведомо отсутствует»
+        plugin.getReplication().onProfileCreated(profileIndex::markPresent);
+        metrics.counterOf("profile_index_skipped_lookups_total", "Поисков профиля, пропущенных по индексу", profileIndex::getSkippedLookups);
+        metrics.gauge("profile_index_loaded", "Индекс профилей загружен из базы (1) или нет (0)", () -> profileIndex.isLoaded() ? 1 : 0);
+        metrics.gauge("profile_index_loaded_names", "Имён, загруженных в индекс профилей при запуске", profileIndex::getLoadedNames);
+
+        metrics.gauge("hashing_queue_depth", "Задач в очереди хеширования", hashingStage::getQueueDepth);
+        metrics.gauge("hashing_running", "Выполняемых операций хеширования", hashingStage::getRunning);
+        metrics.counterOf("hashing_rejected_total", "Отклонено из-за переполнения очереди", hashingStage::getRejected);
+    }
+
+    public HashingStage getHashingStage() {
+        return hashingStage;
+    }
+
+    /** Регистрация нового пользователя или проверка пароля существующего */
+    public CompletableFuture<AuthResult> authenticate(String login, String passwordStr) {
+        return authenticate(login, passwordStr, RequestTrace.DISABLED);
+    }
+
+    /**
+     * То же с отметкой этапа поиска профиля в трассировке запроса.
+     * Одновременные запросы с тем же логином и паролем (повтор Laravel, двойная отправка формы)
+     * не открывают своих транзакций и не хешируют пароль заново, а получают результат первого.
+     */
+    public CompletableFuture<AuthResult> authenticate(String login, String passwordStr, RequestTrace trace) {
+        FlightKey key = FlightKey.of(login, passwordStr);
+        CompletableFuture<AuthResult> flight = new CompletableFuture<>();
+        CompletableFuture<AuthResult> existing = inFlight.putIfAbsent(key, flight);
+        if (existing != null) {
+            coalesced.increment();
+            plugin.logDebug("Запрос для {} присоединён к уже выполняющемуся", login);
+            // Копия: ожидающий не может завершить общий результат
+            return existing.copy();
+        }
+        CompletableFuture<AuthResult> result;
+        try {
+            result = authenticateOnce(login, passwordStr, trace);
+        } catch (RuntimeException e) {
+            result = CompletableFuture.failedFuture(e);
+        }
+        result.whenComplete((response, e) -> {
+            // Ключ снимается до завершения: запрос после ответа (например, после смены пароля) выполнится заново
+            inFlight.remove(key, flight);
+            if (e != null) {
+                flight.completeExceptionally(e);
+            } else {
+                flight.complete(response);
+            }
+        });
+        return flight;
+    }
+
+    private CompletableFuture<AuthResult> authenticateOnce(String login, String passwordStr, RequestTrace trace) {
+        if (profileIndex.isSurelyAbsent(login)) {
+            // Транзакция создания перепроверит имя, поиск можно пропустить
+            plugin.logDebug("Профиль заведомо отсутствует, регистрация без поиска: {}", login);
+            trace.mark(RequestTrace.Stage.LOOKUP);
+            return register(login, passwordStr);
+        }
+        return lookupProfile(login).thenCompose(lookup -> {
+            trace.mark(RequestTrace.Stage.LOOKUP);
+            if (!lookup.exists) {
+                plugin.logDebug("Профиль не найден, регистрация нового пользователя: {}", login);
+                return register(login, passwordStr);
+            }
+            plugin.logDebug("Профиль найден, проверка пароля для пользователя: {}", login);
+            return verify(login, passwordStr, lookup.password);
+        });
+    }
+
+    /** Поиск профиля; пароль читается внутри транзакции */
+    private CompletableFuture<ProfileLookup> lookupProfile(String login) {
+        AtomicReference<ProfileLookup> result = new AtomicReference<>();
+        long start = System.nanoTime();
+        return api.inDatabase(tx -> result.set(ProfileLookup.of(tx.findProfileByName(login))))
+                .thenApply(ignored -> {
+                    profileLookupTime.recordSince(start);
+                    ProfileLookup lookup = result.get();
+                    updateIndex(login, lookup);
+                    return lookup;
+                });
+    }
+
+    private CompletableFuture<AuthResult> register(String login, String passwordStr) {
+        return hashingStage.submit(() -> api.createPassword(passwordStr), passwordHashTime).thenCompose(password -> {
+            AtomicReference<ProfileLookup> concurrent = new AtomicReference<>(ProfileLookup.ABSENT);
+            return serializedByName(List.of(login), () -> api.inDatabase(tx -> {
+                // Между поиском и созданием профиль мог появиться (параллельный запрос или вход в игре)
+                PlayerProfile existing = tx.findProfileByName(login);
+                if (existing != null) {
+                    concurrent.set(ProfileLookup.of(existing));
+                    return;
+                }
+                tx.createProfile(login, profile -> {
+                    profile.setPassword(password);
+                    profile.setPremium(false);
+                    plugin.logDebug("Пароль установлен для нового пользователя: {}", login);
+                });
+            })).thenCompose(ignored -> {
+                profileIndex.markPresent(login);
+                ProfileLookup lookup = concurrent.get();
+                if (!lookup.exists) {
+                    plugin.getReplication().publishProfileCreated(login);
+                }
+                if (lookup.exists) {
+                    plugin.logDebug("Профиль создан параллельно, проверка пароля для пользователя: {}", login);
+                    return verify(login, passwordStr, lookup.password);
+                }
+                return CompletableFuture.completedFuture(registeredResponse(login));
+            });
+        });
+    }
+
+    private CompletableFuture<AuthResult> verify(String login, String passwordStr, ProfilePassword password) {
+        return hashingStage.submit(() -> api.verifyPassword(passwordStr, password), passwordVerifyTime).thenApply(isValid -> loginResponse(login, isValid));
+    }
+
+    /**
+     * Пакетная аутентификация: один поиск профилей и одна транзакция создания на весь пакет,
+     * хеширование и проверка паролей запускаются параллельно. Порядок ответов совпадает с запросом.
+     */
+    public CompletableFuture<List<AuthResult>> authenticateBatch(List<Credentials> items) {
+        Map<String, ProfileLookup> lookups = new HashMap<>();
+        long start = System.nanoTime();
+        List<String> toLookup = new ArrayList<>();
+        for (Credentials item : items) {
+            if (item.isComplete() && !lookups.containsKey(item.login)) {
+                if (profileIndex.isSurelyAbsent(item.login)) {
+                    lookups.put(item.login, ProfileLookup.ABSENT);
+                } else {
+                    lookups.put(item.login, null);
+                    toLookup.add(item.login);
+                }
+            }
+        }
+        // Все имена пакета заведомо отсутствуют — транзакция поиска не нужна
+        CompletableFuture<Void> lookupDone = toLookup.isEmpty() ? CompletableFuture.completedFuture(null) : api.inDatabase(tx -> {
+            for (String login : toLookup) {
+                lookups.put(login, ProfileLookup.of(tx.findProfileByName(login)));
+            }
+        });
+        return lookupDone.thenCompose(ignored -> {
+            profileLookupTime.recordSince(start);
+            for (String login : toLookup) {
+                updateIndex(login, lookups.get(login));
+            }
+            // Для каждого нового имени пароль хешируется один раз — по первому вхождению в пакете
+            Map<String, CompletableFuture<ProfilePassword>> newPasswords = new LinkedHashMap<>();
+            for (Credentials item : items) {
+                if (item.isComplete() && !lookups.get(item.login).exists) {
+                    newPasswords.computeIfAbsent(item.login, name -> hashingStage.submit(() -> api.createPassword(item.password), passwordHashTime));
+                }
+            }
+            Map<String, CompletableFuture<ProfileLookup>> registrations = createProfiles(newPasswords);
+
+            List<CompletableFuture<AuthResult>> results = new ArrayList<>(items.size());
+            Set<String> registered = new HashSet<>();
+            for (Credentials item : items) {
+                results.add(authenticateBatchItem(item, lookups, newPasswords, registrations, registered)
+                        .exceptionally(e -> {
+                            if (HashingStage.isRejection(e)) {
+                                return AuthResult.error(item.login, "Сервер перегружен, повторите позже");
+                            }
+                            plugin.logDebug("Ошибка пакетной аутентификации для {}: {}", item.login, e);
+                            return AuthResult.error(item.login, "Внутренняя ошибка сервера");
+                        }));
+            }
+            return CompletableFuture.allOf(results.toArray(new CompletableFuture<?>[0]))
+                    .thenApply(done -> {
+                        List<AuthResult> responses = new ArrayList<>(results.size());
+                        for (CompletableFuture<AuthResult> result : results) {
+                            responses.add(result.join());
+                        }
+                        return responses;
+                    });
+        });
+    }
+
+    private CompletableFuture<AuthResult> authenticateBatchItem(Credentials item,
+                                                                Map<String, ProfileLookup> lookups,
+                                                                Map<String, CompletableFuture<ProfilePassword>> newPasswords,
+                                                                Map<String, CompletableFuture<ProfileLookup>> registrations,
+                                                                Set<String> registered) {
+        if (item.throttled) {
+            return CompletableFuture.completedFuture(AuthResult.error(item.login, AuthResult.TOO_MANY_ATTEMPTS));
+        }
+        if (!item.isComplete()) {
+            return CompletableFuture.completedFuture(AuthResult.error(item.login, "Логин и пароль обязательны"));
+        }
+        String login = item.login;
+        ProfileLookup lookup = lookups.get(login);
+        if (lookup.exists) {
+            return verify(login, item.password, lookup.password);
+        }
+        boolean owner = registered.add(login);
+        return registrations.get(login).thenCompose(created -> {
+            if (created != null) {
+                return verify(login, item.password, created.password);
+            }
+            if (owner) {
+                return CompletableFuture.completedFuture(registeredResponse(login));
+            }
+            // Повтор того же имени в пакете проверяется по только что созданному паролю
+            return verify(login, item.password, newPasswords.get(login).join());
+        });
+    }
+
+    /**
+     * Создание новых профилей пакета. Результат по каждому имени: null — профиль создан этим пакетом,
+     * профиль — создан параллельно другим запросом, ошибка — хеширование отклонено или создание не удалось.
+     * Имена с неудачным хешированием в транзакцию не попадают. Остальные создаются одной транзакцией;
+     * если она не прошла, она откатывается целиком, и каждое имя повторяется своей транзакцией,
+     * чтобы ошибка одного профиля не отменяла регистрацию остальных.
+     */
+    private Map<String, CompletableFuture<ProfileLookup>> createProfiles(Map<String, CompletableFuture<ProfilePassword>> newPasswords) {
+        Map<String, CompletableFuture<ProfileLookup>> outcomes = new HashMap<>();
+        for (String login : newPasswords.keySet()) {
+            outcomes.put(login, new CompletableFuture<>());
+        }
+        if (newPasswords.isEmpty()) {
+            return outcomes;
+        }
+        CompletableFuture.allOf(newPasswords.values().stream()
+                        .map(password -> password.handle((hashed, e) -> null))
+                        .toArray(CompletableFuture<?>[]::new))
+                .thenCompose(allHashed -> {
+                    Map<String, ProfilePassword> hashed = new LinkedHashMap<>();
+                    newPasswords.forEach((login, password) -> {
+                        try {
+                            hashed.put(login, password.join());
+                        } catch (CompletionException | CancellationException e) {
+                            outcomes.get(login).completeExceptionally(e);
+                        }
+                    });
+                    if (hashed.isEmpty()) {
+                        return CompletableFuture.completedFuture(null);
+                    }
+                    return createInTransaction(hashed).handle((concurrent, e) -> {
+                        if (e == null) {
+                            hashed.keySet().forEach(login -> outcomes.get(login).complete(concurrent.get(login)));
+                        } else if (hashed.size() == 1) {
+                            hashed.keySet().forEach(login -> outcomes.get(login).completeExceptionally(e));
+                        } else {
+                            plugin.logDebug("Общая транзакция создания профилей не прошла, повтор по одному: {}", e);
+                            hashed.forEach((login, password) -> createInTransaction(Map.of(login, password))
+                                    .whenComplete((single, error) -> {
+                                        if (error != null) {
+                                            outcomes.get(login).completeExceptionally(error);
+                                        } else {
+                                            outcomes.get(login).complete(single.get(login));
+                                        }
+                                    }));
+                        }
+                        return null;
+                    });
+                })
+                .exceptionally(e -> {
+                    // Непредвиденная ошибка: ни один элемент не должен остаться без ответа
+                    outcomes.values().forEach(outcome -> outcome.completeExceptionally(e));
+                    return null;
+                });
+        return outcomes;
+    }
+
+    /** Транзакция создания профилей с уже захешированными паролями; возвращает профили, созданные параллельно */
+    private CompletableFuture<Map<String, ProfileLookup>> createInTransaction(Map<String, ProfilePassword> passwords) {
+        Map<String, ProfileLookup> concurrent = new HashMap<>();
+        return serializedByName(passwords.keySet(), () -> api.inDatabase(tx -> {
+                    passwords.forEach((login, password) -> {
+                        PlayerProfile existing = tx.findProfileByName(login);
+                        if (existing != null) {
+                            concurrent.put(login, ProfileLookup.of(existing));
+                            return;
+                        }
+                        tx.createProfile(login, profile -> {
+                            profile.setPassword(password);
+                            profile.setPremium(false);
+                        });
+                        plugin.logDebug("Пароль установлен для нового пользователя: {}", login);
+                    });
+                }))
+                .thenApply(ignored -> {
+                    for (String login : passwords.keySet()) {
+                        profileIndex.markPresent(login);
+                        if (!concurrent.containsKey(login)) {
+                            plugin.getReplication().publishProfileCreated(login);
+                        }
+                    }
+                    return concurrent;
+                });
+    }
+
+    /**
+     * Запуск транзакции создания после завершения предыдущих транзакций с именами из тех же полос.
+     * Без этого два запроса с разными паролями для нового имени оба не находят профиль и оба создают его.
+     * Полосы занимаются по возрастанию номера и по одной (как блокировки в фиксированном порядке),
+     * поэтому пакеты с пересекающимися именами не ждут друг друга по кругу. Потоки не блокируются:
+     * ожидание — это цепочка CompletableFuture.
+     */
+    private <T> CompletableFuture<T> serializedByName(Collection<String> names, Supplier<CompletableFuture<T>> transaction) {
+        int[] stripes = names.stream()
+                .mapToInt(name -> (name.toLowerCase(Locale.ROOT).hashCode() & 0x7FFFFFFF) % REGISTRATION_STRIPES)
+                .distinct()
+                .sorted()
+                .toArray();
+        CompletableFuture<Void> release = new CompletableFuture<>();
+        CompletableFuture<Void> acquired = CompletableFuture.completedFuture(null);
+        for (int stripe : stripes) {
+            acquired = acquired.thenCompose(ignored -> {
+                CompletableFuture<Void> previous = registrationTails.getAndSet(stripe, release);
+                return previous == null ? CompletableFuture.completedFuture(null) : previous;
+            });
+        }
+        return acquired.thenCompose(ignored -> transaction.get()).whenComplete((result, e) -> {
+            release.complete(null);
+            for (int stripe : stripes) {
+                registrationTails.compareAndSet(stripe, release, null);
+            }
+        });
+    }
+
+    // Профиль, созданный в обход моста после загрузки индекса, больше не считается отсутствующим
+    private void updateIndex(String login, ProfileLookup lookup) {
+        if (lookup.exists) {
+            profileIndex.markPresent(login);
+        }
+    }
+
+    // Токен подписывается только после создания профиля или верного пароля: отказ не тратит время на подпись
+    private AuthResult registeredResponse(String login) {
+        registrations.increment();
+        return AuthResult.registered(login, jwtManager.generateToken(login));
+    }
+
+    private AuthResult loginResponse(String login, boolean isValid) {
+        if (isValid) {
+            logins.increment();
+            plugin.logDebug("Пароль корректен для пользователя: {}", login);
+            return AuthResult.loggedIn(login, jwtManager.generateToken(login));
+        }
+        wrongPasswords.increment();
+        plugin.logDebug("Неверный пароль для пользователя: {}", login);
+        return AuthResult.wrongPassword(login);
+    }
+
+    /** Тело запроса или элемент пакета {login,password} */
+    public static final class Credentials {
+        final String login;
+        final String password;
+        // Превышен лимит попыток: элемент пакета не попадает в транзакцию и хеширование
+        final boolean throttled;
+
+        public Credentials(String login, String password) {
+            this(login, password, false);
+        }
+
+        private Credentials(String login, String password, boolean throttled) {
+            this.login = login;
+            this.password = password;
+            this.throttled = throttled;
+        }
+
+        Credentials throttled() {
+            return new Credentials(login, password, true);
+        }
+
+        public String getLogin() {
+            return login;
+        }
+
+        public String getPassword() {
+            return password;
+        }
+
+        boolean isComplete() {
+            return login != null && password != null && !throttled;
+        }
+    }
+
+    /** Логин и SHA-256 пароля с солью процесса: сам пароль в ключе не хранится */
+    private static final class FlightKey {
+        private static final byte[] SALT = new byte[16];
+        private static final InstancePool<MessageDigest> SHA256 = new InstancePool<>(() -> {
+            try {
+                return MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+
+        static {
+            new SecureRandom().nextBytes(SALT);
+        }
+
+        private final String login;
+        private final long high;
+        private final long low;
+
+        private FlightKey(String login, long high, long low) {
+            this.login = login;
+            this.high = high;
+            this.low = low;
+        }
+
+        static FlightKey of(String login, String password) {
+            byte[] bytes = password.getBytes(StandardCharsets.UTF_8);
+            MessageDigest digest = SHA256.acquire();
+            ByteBuffer hash;
+            try {
+                digest.update(SALT);
+                hash = ByteBuffer.wrap(digest.digest(bytes));
+            } finally {
+                SHA256.release(digest);
+            }
+            return new FlightKey(login, hash.getLong(), hash.getLong());
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof FlightKey)) return false;
+            FlightKey other = (FlightKey) o;
+            return high == other.high && low == other.low && login.equals(other.login);
+        }
+
+        @Override
+        public int hashCode() {
+            return login.hashCode() * 31 + Long.hashCode(high);
+        }
+    }
+
+    /** Результат поиска профиля, отвязанный от транзакции */
+    private static final class ProfileLookup {
+        static final ProfileLookup ABSENT = new ProfileLookup(false, null);
+
+        final boolean exists;
+        final ProfilePassword password;
+
+        private ProfileLookup(boolean exists, ProfilePassword password) {
+            this.exists = exists;
+            this.password = password;
+        }
+
+        static ProfileLookup of(PlayerProfile profile) {
+            return profile == null ? ABSENT : new ProfileLookup(true, profile.getPassword());
+        }
+    }
+}
@@ -10,19 +10,24 @@ import java.util.Map;
 
 import javax.sql.DataSource;
 
-public class BaronessLaravelBridge extends Plugin {
+public class BaronessLaravelBridge extends Plugin implements BridgeContext {
 
     private BaronessAuthBungeeAPI api;
     private ConfigManager configManager;
     private DatabaseManager databaseManager;
     private JwtManager jwtManager;
+    private PasswordListener passwordListener;
     private HttpServerManager httpServerManager;
-    private boolean debug = false;
+    private UserIdCache userIdCache;
+    private Replication replication;
+    private MetricsRegistry metrics;
+    private volatile boolean debug = false;
     private Gson gson = new Gson();
 
     @Override
     public void onEnable() {
         api = BaronessAuthBungeeAPI.getInstance();
+        metrics = new MetricsRegistry();
 
         // Загрузка конфига
         configManager = new ConfigManager(getDataFolder(), getLogger());
@@ -31,9 +36,16 @@ public class BaronessLaravelBridge extends Plugin {
         // Переменная debug из конфигурации
         debug = configManager.getBoolean("debug", false);
 
+        // Режим потоков HTTP сервера и слушателя смены пароля
+        ThreadMode threadMode = ThreadMode.fromConfig(configManager.getString("thread_mode"), getLogger());
+
         // Инициализация JWT менеджера
         jwtManager = new JwtManager(configManager.getString("jwtSecret"), getLogger(), configManager);
 
+        // Обмен событиями с мостами на других прокси; отзывы оттуда применяются как локальные
+        replication = new Replication(this);
+        replication.onRevocation(jwtManager::revokeTokens);
+
         // Инициализация менеджера базы данных
         databaseManager = new DatabaseManager(this, configManager.getConfigMap());
         try {
@@ -43,16 +55,46 @@ public class BaronessLaravelBridge extends Plugin {
             throw new RuntimeException("Cannot initialize database");
         }
 
+        // Кеш id пользователей Laravel по имени игрока
+        userIdCache = new UserIdCache(configManager);
+        metrics.counterOf("user_id_cache_hits_total", "Попаданий в кеш id пользователей", userIdCache::getHits);
+        metrics.counterOf("user_id_cache_misses_total", "Промахов кеша id пользователей", userIdCache::getMisses);
+
         // Запуск HTTP сервера с API
-        httpServerManager = new HttpServerManager(this, api, jwtManager);
-        httpServerManager.start(8080);
+        httpServerManager = new HttpServerManager(this, api, jwtManager, threadMode);
+        int port = configManager.getInt("http_port", 8080);
+        httpServerManager.start(port);
 
         // Регистрация слушателей
-        getProxy().getPluginManager().registerListener(this, new PasswordListener(this, configManager));
+        // Незавершённые сбросы сессий из журнала повторяются сразу, база к этому моменту готова
+        passwordListener = new PasswordListener(this, configManager, jwtManager, threadMode);
+        getProxy().getPluginManager().registerListener(this, passwordListener);
+
+        // Горячая перезагрузка config.yml
+        configManager.addListener(this::onConfigReload);
+        configManager.startWatching();
 
-        getLogger().info("🚀 BaronessLaravelBridge enabled, REST API started on port 8080.");
+        // Соединения с узлами открываются, когда все обработчики событий зарегистрированы
+        replication.start();
+
+        getLogger().info("🚀 BaronessLaravelBridge enabled, REST API started on port " + port + ".");
+    }
+
+    private void onConfigReload(ConfigSnapshot previous, ConfigSnapshot next) {
+        debug = next.isDebug();
+        if (!previous.sameDatabase(next)) {
+            databaseManager.reload(next.asMap());
+        } else {
+            databaseManager.updatePoolLimits(next.asMap());
+        }
     }
 
+    @Override
+    public boolean isDebug() {
+        return debug;
+    }
+
+    @Override
     public void logDebug(String message) {
         if (debug) {
             getLogger().info("[🚀 BaronessLaravelBridge] " + message);
@@ -60,20 +102,59 @@ public class BaronessLaravelBridge extends Plugin {
     }
 
     // Получение DataSource для доступа к базе
+    @Override
     public DataSource getDataSource() {
         return databaseManager.getDataSource();
     }
 
+    // Получение DatabaseManager (ограничение параллельных обращений к пулу)
+    @Override
+    public DatabaseManager getDatabaseManager() {
+        return databaseManager;
+    }
+
+    // Получение реестра метрик (/metrics)
+    @Override
+    public MetricsRegistry getMetrics() {
+        return metrics;
+    }
+
+    // Получение кеша имя игрока → id пользователя Laravel
+    @Override
+    public UserIdCache getUserIdCache() {
+        return userIdCache;
+    }
+
+    // Получение канала репликации между прокси
+    @Override
+    public Replication getReplication() {
+        return replication;
+    }
+
     // Получение ConfigManager для доступа к конфигу
+    @Override
     public ConfigManager getConfigManager() {
         return configManager;
     }
 
     @Override
     public void onDisable() {
+        if (configManager != null) {
+            configManager.stopWatching();
+        }
         if (httpServerManager != null) {
             httpServerManager.stop();
         }
+        if (jwtManager != null) {
+            jwtManager.shutdown();
+        }
+        // До остановки пула: идущий сброс сессий должен успеть выполнить DELETE
+        if (passwordListener != null) {
+            passwordListener.shutdown();
+        }
+        if (replication != null) {
+            replication.stop();
+        }
         if (databaseManager != null) {
             databaseManager.shutdown();
         }
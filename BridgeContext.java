@@ -0,0 +1,75 @@
+package ru.bont777.bridge;
+
+import javax.sql.DataSource;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+
+/**
+ * То, что компонентам нужно от плагина: логгер, конфиг и метрики.
+ * Реализуется BaronessLaravelBridge; позволяет запускать компоненты вне BungeeCord (бенчмарки, нагрузочный стенд).
+ */
+public interface BridgeContext {
+
+    Logger getLogger();
+
+    /** Включён ли debug: перед дорогой подготовкой отладочных данных */
+    boolean isDebug();
+
+    void logDebug(String message);
+
+    /**
+     * Отладочное сообщение с подстановкой аргументов вместо {}: строка собирается, только если debug включён.
+     * На горячем пути предпочтительнее этих перегрузок, а не конкатенации при вызове.
+     */
+    default void logDebug(String pattern, Object arg) {
+        if (isDebug()) {
+            logDebug(format(pattern, arg));
+        }
+    }
+
+    default void logDebug(String pattern, Object arg1, Object arg2) {
+        if (isDebug()) {
+            logDebug(format(pattern, arg1, arg2));
+        }
+    }
+
+    default void logDebug(String pattern, Object arg1, Object arg2, Object arg3) {
+        if (isDebug()) {
+            logDebug(format(pattern, arg1, arg2, arg3));
+        }
+    }
+
+    /** Для сообщений с большим числом аргументов; лямбда без захвата переменных не создаёт объектов */
+    default void logDebug(Supplier<String> message) {
+        if (isDebug()) {
+            logDebug(message.get());
+        }
+    }
+
+    private static String format(String pattern, Object... args) {
+        StringBuilder out = new StringBuilder(pattern.length() + 32);
+        int from = 0;
+        for (Object arg : args) {
+            int at = pattern.indexOf("{}", from);
+            if (at < 0) {
+                break;
+            }
+            out.append(pattern, from, at).append(arg);
+            from = at + 2;
+        }
+        return out.append(pattern, from, pattern.length()).toString();
+    }
+
+    ConfigManager getConfigManager();
+
+    MetricsRegistry getMetrics();
+
+    DatabaseManager getDatabaseManager();
+
+    DataSource getDataSource();
+
+    UserIdCache getUserIdCache();
+
+    /** Обмен событиями с мостами на других прокси; без настроенных узлов публикация ничего не делает */
+    Replication getReplication();
+}
@@ -3,21 +3,49 @@ package ru.bont777.bridge;
 import org.yaml.snakeyaml.Yaml;
 
 import java.io.*;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiConsumer;
 import java.util.logging.Logger;
 
+/**
+ * Загрузка config.yml и горячая перезагрузка по изменению файла.
+ * Текущие значения — неизменяемый ConfigSnapshot за volatile-ссылкой: чтение без блокировок и разбора YAML.
+ */
 public class ConfigManager {
 
+    // Пауза после события файловой системы: редакторы пишут файл в несколько приёмов
+    private static final long RELOAD_DEBOUNCE_MS = 250;
+
     private final File configFile;
-    private Map<String, Object> configMap;
+    private volatile ConfigSnapshot snapshot = ConfigSnapshot.EMPTY;
     private final Logger logger;
+    private final List<BiConsumer<ConfigSnapshot, ConfigSnapshot>> listeners = new CopyOnWriteArrayList<>();
+    private final AtomicBoolean savePending = new AtomicBoolean();
+    private final ExecutorService saver = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "bridge-config-save");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private volatile WatchService watchService;
 
     public ConfigManager(File dataFolder, Logger logger) {
         this.configFile = new File(dataFolder, "config.yml");
         this.logger = logger;
     }
 
-    @SuppressWarnings("unchecked")
     public void load() {
         Yaml yaml = new Yaml();
         try {
@@ -27,69 +55,261 @@ public class ConfigManager {
                 }
                 try (FileWriter writer = new FileWriter(configFile)) {
                     writer.write("debug: false\n");
+                    writer.write("thread_mode: platform\n");
+                    writer.write("http_port: 8080\n");
+                    writer.write("http_host: \"\"\n");
+                    writer.write("http_tcp_enabled: true\n");
+                    writer.write("http_unix_socket_path: \"\"\n");
+                    writer.write("http_unix_socket_permissions: rw-rw----\n");
+                    writer.write("http_acceptors: -1\n");
+                    writer.write("http_selectors: -1\n");
+                    writer.write("http_min_threads: 8\n");
+                    writer.write("http_max_threads: 200\n");
+                    writer.write("http_queue_size: 1024\n");
+                    writer.write("http_idle_timeout_ms: 30000\n");
+                    writer.write("http_accept_queue_size: 0\n");
+                    writer.write("http_h2c: false\n");
+                    writer.write("http_compression: gzip\n");
+                    writer.write("http_compression_level: 6\n");
+                    writer.write("http_compression_min_size: 1500\n");
                     writer.write("jwtSecret: \"PLEASE_PASTE_YOUR_KEY\"\n");
+                    writer.write("jwt_cache_size: 10000\n");
+                    writer.write("jwt_algorithm: HS256\n");
+                    writer.write("jwt_accept_hs256: true\n");
+                    writer.write("jwt_key_rotation_hours: 24\n");
+                    writer.write("jwt_key_overlap_hours: 2\n");
                     writer.write("db_host: localhost\n");
                     writer.write("db_port: 3306\n");
                     writer.write("db_database: your_database\n");
                     writer.write("db_user: your_user\n");
                     writer.write("db_password: your_password\n");
+                    writer.write("db_jdbc_url: \"\"\n");
+                    writer.write("db_max_concurrency: 20\n");
+                    writer.write("db_pool_max_size: 20\n");
+                    writer.write("db_pool_min_idle: 5\n");
+                    writer.write("db_pool_adaptive: false\n");
+                    writer.write("db_pool_adaptive_min_size: 2\n");
+                    writer.write("db_pool_adaptive_wait_ms: 5\n");
+                    writer.write("db_pool_adaptive_interval_seconds: 10\n");
+                    writer.write("db_read_jdbc_url: \"\"\n");
+                    writer.write("db_read_pool_size: 0\n");
                     writer.write("table_users: users\n");
                     writer.write("table_sessions: sessions\n");
                     writer.write("column_user_id: id\n");
                     writer.write("column_username: username\n");
                     writer.write("column_session_user_id: user_id\n");
+                    writer.write("table_profiles: baronessauth_profiles\n");
+                    writer.write("column_profile_name: name\n");
+                    writer.write("column_profile_premium: premium\n");
+                    writer.write("column_profile_changed_at: updated_at\n");
+                    writer.write("session_purge_window_ms: 200\n");
+                    writer.write("session_purge_batch_size: 500\n");
+                    writer.write("session_journal_enabled: true\n");
+                    writer.write("session_journal_size_kb: 256\n");
+                    writer.write("session_journal_sync_ms: 100\n");
+                    writer.write("user_id_cache_size: 10000\n");
+                    writer.write("user_id_cache_ttl_seconds: 600\n");
+                    writer.write("user_id_cache_negative_ttl_seconds: 30\n");
+                    writer.write("batch_max_items: 100\n");
+                    writer.write("metrics_enabled: true\n");
+                    writer.write("request_trace_size: 1024\n");
+                    writer.write("request_trace_subjects: \"\"\n");
+                    writer.write("admin_api_token: \"\"\n");
+                    writer.write("profile_sync_enabled: false\n");
+                    writer.write("profile_sync_subjects: \"\"\n");
+                    writer.write("profile_sync_page_size: 1000\n");
+                    writer.write("profile_sync_max_concurrent: 1\n");
+                    writer.write("hashing_parallelism: 2\n");
+                    writer.write("hashing_queue_size: 256\n");
+                    writer.write("hashing_retry_after_seconds: 1\n");
+                    writer.write("profile_index_enabled: true\n");
+                    writer.write("profile_index_bloom_bits: 1048576\n");
+                    writer.write("auth_throttle_window_seconds: 60\n");
+                    writer.write("auth_throttle_login_limit: 10\n");
+                    writer.write("auth_throttle_ip_limit: 0\n");
+                    writer.write("auth_throttle_ip_header: \"\"\n");
+                    writer.write("auth_throttle_sketch_width: 16384\n");
+                    writer.write("replication_port: 0\n");
+                    writer.write("replication_host: \"\"\n");
+                    writer.write("replication_peers: \"\"\n");
+                    writer.write("replication_secret: \"\"\n");
+                    writer.write("replication_batch_ms: 10\n");
+                    writer.write("replication_queue_size: 10000\n");
                     writer.write("message_to_player: \"Произошла ошибка при сбросе вашей сессии. Сообщите администрации.\"\n");
                 }
                 logger.info("Создан новый файл конфигурации config.yml");
             }
-            try (FileInputStream fis = new FileInputStream(configFile)) {
-                configMap = yaml.load(fis);
-                if (configMap == null) configMap = Map.of();
-                logger.info("Конфигурация config.yml загружена");
-            }
+            snapshot = read(yaml);
+            logger.info("Конфигурация config.yml загружена");
         } catch (IOException e) {
             logger.warning("Ошибка загрузки config.yml: " + e.getMessage());
-            configMap = Map.of();
+            snapshot = ConfigSnapshot.EMPTY;
+        }
+    }
+
+    /**
+     * Повторное чтение config.yml. Если содержимое изменилось, публикуется новый снимок
+     * и вызываются слушатели (старый снимок, новый снимок). Ошибка чтения оставляет прежний снимок.
+     */
+    public boolean reload() {
+        ConfigSnapshot next;
+        try {
+            next = read(new Yaml());
+        } catch (Exception e) {
+            logger.warning("Ошибка перезагрузки config.yml, используется прежняя конфигурация: " + e.getMessage());
+            return false;
+        }
+        ConfigSnapshot previous;
+        synchronized (this) {
+            previous = snapshot;
+            if (previous.equals(next)) {
+                return false;
+            }
+            snapshot = next;
+        }
+        logger.info("Конфигурация config.yml перезагружена");
+        for (BiConsumer<ConfigSnapshot, ConfigSnapshot> listener : listeners) {
+            try {
+                listener.accept(previous, next);
+            } catch (RuntimeException e) {
+                logger.warning("Ошибка применения новой конфигурации: " + e);
+            }
+        }
+        return true;
+    }
+
+    @SuppressWarnings("unchecked")
+    private ConfigSnapshot read(Yaml yaml) throws IOException {
+        try (FileInputStream fis = new FileInputStream(configFile)) {
+            Map<String, Object> values = yaml.load(fis);
+            return new ConfigSnapshot(values == null ? Map.of() : values);
+        }
+    }
+
+    /** Подписка на перезагрузку конфигурации: (старый снимок, новый снимок) */
+    public void addListener(BiConsumer<ConfigSnapshot, ConfigSnapshot> listener) {
+        listeners.add(listener);
+    }
+
+    /** Запуск наблюдения за config.yml (WatchService на папке плагина) */
+    public void startWatching() {
+        if (watchService != null) {
+            return;
+        }
+        Path dir = configFile.getParentFile().toPath();
+        try {
+            watchService = FileSystems.getDefault().newWatchService();
+            dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+        } catch (IOException e) {
+            logger.warning("Не удалось запустить наблюдение за config.yml: " + e.getMessage());
+            return;
+        }
+        Thread watcher = new Thread(this::watch, "bridge-config-watch");
+        watcher.setDaemon(true);
+        watcher.start();
+    }
+
+    private void watch() {
+        WatchService ws = watchService;
+        String fileName = configFile.getName();
+        try {
+            while (true) {
+                WatchKey key = ws.take();
+                boolean changed = false;
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    Object context = event.context();
+                    if (context instanceof Path && fileName.equals(((Path) context).getFileName().toString())) {
+                        changed = true;
+                    }
+                }
+                if (changed) {
+                    // Собираем остальные события этой записи файла и перечитываем один раз
+                    Thread.sleep(RELOAD_DEBOUNCE_MS);
+                    WatchKey more;
+                    while ((more = ws.poll()) != null) {
+                        more.pollEvents();
+                        more.reset();
+                    }
+                    reload();
+                }
+                if (!key.reset()) {
+                    logger.warning("Папка с config.yml недоступна, наблюдение остановлено");
+                    return;
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // Остановка плагина
+        }
+    }
+
+    public void stopWatching() {
+        WatchService ws = watchService;
+        watchService = null;
+        if (ws != null) {
+            try {
+                ws.close();
+            } catch (IOException ignored) {
+            }
+        }
+        saver.shutdown();
+        try {
+            saver.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
     }
 
     public void save() {
         Yaml yaml = new Yaml();
         try (FileWriter writer = new FileWriter(configFile)) {
-            yaml.dump(configMap, writer);
+            yaml.dump(snapshot.asMap(), writer);
             logger.info("Конфигурация config.yml успешно сохранена.");
         } catch (IOException e) {
             logger.warning("Ошибка сохранения config.yml: " + e.getMessage());
         }
     }
 
+    /** Папка плагина (config.yml и служебные файлы) */
+    public File getDataFolder() {
+        return configFile.getParentFile();
+    }
+
+    /** Текущий снимок конфигурации */
+    public ConfigSnapshot snapshot() {
+        return snapshot;
+    }
+
     public Object get(String key) {
-        return configMap.get(key);
+        return snapshot.get(key);
     }
 
     public String getString(String key) {
-        Object val = configMap.get(key);
-        return val == null ? "" : val.toString();
+        return snapshot.getString(key);
     }
 
     public int getInt(String key, int def) {
-        Object val = configMap.get(key);
-        if (val instanceof Number) return ((Number) val).intValue();
-        try { return Integer.parseInt(val.toString()); } catch (Exception ex) { return def; }
+        return snapshot.getInt(key, def);
     }
 
     public boolean getBoolean(String key, boolean def) {
-        Object val = configMap.get(key);
-        if (val instanceof Boolean) return (Boolean) val;
-        if (val != null) return Boolean.parseBoolean(val.toString());
-        return def;
+        return snapshot.getBoolean(key, def);
     }
 
+    /** Изменение значения: новый снимок публикуется сразу, запись файла — в фоне (несколько изменений — одна запись) */
     public void setValue(String key, Object value) {
-        configMap.put(key, value);
-        save();
+        synchronized (this) {
+            snapshot = snapshot.with(key, value);
+        }
+        if (savePending.compareAndSet(false, true)) {
+            saver.execute(() -> {
+                savePending.set(false);
+                save();
+            });
+        }
     }
+
+    /** Неизменяемое представление текущего снимка */
     public Map<String, Object> getConfigMap() {
-        return configMap;
+        return snapshot.asMap();
     }
 }
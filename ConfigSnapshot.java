@@ -0,0 +1,91 @@
+package ru.bont777.bridge;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Неизменяемый снимок config.yml. ConfigManager публикует новый снимок целиком через volatile-ссылку,
+ * поэтому читатели не берут блокировок и всегда видят согласованный набор значений.
+ */
+public final class ConfigSnapshot {
+
+    // Изменение любого из этих ключей требует нового пула соединений
+    private static final String[] DATABASE_KEYS = {
+            "db_host", "db_port", "db_database", "db_user", "db_password", "db_jdbc_url",
+            "db_read_jdbc_url", "db_read_pool_size"
+    };
+
+    static final ConfigSnapshot EMPTY = new ConfigSnapshot(Map.of());
+
+    private final Map<String, Object> values;
+    private final boolean debug;
+
+    ConfigSnapshot(Map<String, Object> values) {
+        this.values = Collections.unmodifiableMap(new LinkedHashMap<>(values));
+        this.debug = getBoolean("debug", false);
+    }
+
+    /** Копия снимка с изменённым значением */
+    ConfigSnapshot with(String key, Object value) {
+        Map<String, Object> copy = new LinkedHashMap<>(values);
+        copy.put(key, value);
+        return new ConfigSnapshot(copy);
+    }
+
+    public Object get(String key) {
+        return values.get(key);
+    }
+
+    public String getString(String key) {
+        Object val = values.get(key);
+        return val == null ? "" : val.toString();
+    }
+
+    public int getInt(String key, int def) {
+        Object val = values.get(key);
+        if (val instanceof Number) return ((Number) val).intValue();
+        try { return Integer.parseInt(val.toString()); } catch (Exception ex) { return def; }
+    }
+
+    public boolean getBoolean(String key, boolean def) {
+        Object val = values.get(key);
+        if (val instanceof Boolean) return (Boolean) val;
+        if (val != null) return Boolean.parseBoolean(val.toString());
+        return def;
+    }
+
+    public boolean isDebug() {
+        return debug;
+    }
+
+    /** Совпадают ли параметры подключения к базе */
+    public boolean sameDatabase(ConfigSnapshot other) {
+        return sameValues(other, DATABASE_KEYS);
+    }
+
+    /** Совпадают ли значения всех перечисленных ключей */
+    public boolean sameValues(ConfigSnapshot other, String... keys) {
+        for (String key : keys) {
+            if (!Objects.equals(values.get(key), other.values.get(key))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public Map<String, Object> asMap() {
+        return values;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof ConfigSnapshot && values.equals(((ConfigSnapshot) o).values);
+    }
+
+    @Override
+    public int hashCode() {
+        return values.hashCode();
+    }
+}
@@ -1,49 +1,187 @@
 package ru.bont777.bridge;
 
 import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariConfigMXBean;
 import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.HikariPoolMXBean;
+import com.zaxxer.hikari.metrics.IMetricsTracker;
 
 import javax.sql.DataSource;
 import java.sql.Connection;
 import java.sql.SQLException;
 import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.logging.Logger;
 
+/**
+ * Пулы соединений HikariCP: основной (запись) и необязательный пул чтения для поиска id пользователей,
+ * чтобы выборки не стояли в очереди за DELETE по таблице сессий. Пул чтения смотрит на реплику
+ * (db_read_jdbc_url) или, если реплика не задана, на ту же базу (db_read_pool_size > 0).
+ */
 public class DatabaseManager {
 
-    private final BaronessLaravelBridge plugin;
-    private HikariDataSource dataSource;
-    private Map<String, Object> config;
+    // Через сколько после перезагрузки конфигурации предупреждать о занятых соединениях старого пула
+    private static final long DRAIN_WARNING_MS = 60_000;
 
-    public DatabaseManager(BaronessLaravelBridge plugin, Map<String, Object> config) {
+    private final BridgeContext plugin;
+    // Ссылка меняется при перезагрузке конфигурации; запросы, уже взявшие соединение, дорабатывают на старом пуле
+    private volatile Pools pools;
+    private volatile Map<String, Object> config;
+    private final Semaphore connectionPermits;
+    private PoolSizeController poolSizeController;
+
+    public DatabaseManager(BridgeContext plugin, Map<String, Object> config) {
         this.plugin = plugin;
         this.config = config;
+        // Не больше одновременных обращений, чем соединений в пуле (важно для виртуальных потоков)
+        Object maxConcurrency = config.get("db_max_concurrency");
+        this.connectionPermits = new Semaphore(maxConcurrency instanceof Number ? ((Number) maxConcurrency).intValue() : 20);
     }
 
     public void init() {
-        if (dataSource != null && !dataSource.isClosed()) {
-            dataSource.close();
+        shutdown();
+        if (getBoolean(config, "db_pool_adaptive", false)) {
+            poolSizeController = new PoolSizeController(plugin, () -> pools != null ? pools.write : null, limits(config));
+        }
+        try {
+            pools = createPools(config);
+            plugin.getLogger().info("✅ DataSource успешно инициализирован.");
+        } catch (Exception e) {
+            plugin.getLogger().severe("❌ Ошибка инициализации DataSource: " + e.getMessage());
+            throw e;
+        }
+        if (poolSizeController != null) {
+            poolSizeController.start();
         }
+    }
 
-        HikariConfig hikariConfig = new HikariConfig();
+    /**
+     * Переключение на новые параметры подключения: новые пулы поднимаются до замены ссылки, и новые запросы
+     * берут соединения уже из них. Старые пулы открыты для запросов, получивших ссылку до замены: свободные
+     * соединения закрываются сразу, занятые — при возврате, а minimumIdle обнуляется, чтобы служебный поток
+     * Hikari не открывал взамен новые. Старый пул закрывается, когда возвращены все занятые соединения;
+     * если ждать приходится дольше DRAIN_WARNING_MS, в лог пишется предупреждение, но запросы не обрываются.
+     * Если новые пулы не поднялись, продолжают работать старые.
+     */
+    public void reload(Map<String, Object> newConfig) {
+        Pools next;
+        try {
+            next = createPools(newConfig);
+        } catch (Exception e) {
+            plugin.getLogger().severe("❌ Новые параметры базы данных не применены, используется прежний пул: " + e.getMessage());
+            return;
+        }
+        Pools previous = pools;
+        config = newConfig;
+        pools = next;
+        plugin.getLogger().info("✅ DataSource пересоздан по новой конфигурации.");
+        if (previous != null) {
+            drain(previous.write);
+            if (previous.read != null) {
+                drain(previous.read);
+            }
+        }
+    }
 
+    /** Применение db_pool_max_size/db_pool_min_idle и границ подстройки без пересоздания пула */
+    public void updatePoolLimits(Map<String, Object> newConfig) {
+        config = newConfig;
+        Pools current = pools;
+        if (current == null) {
+            return;
+        }
+        if (poolSizeController != null) {
+            // Контроллер сам приведёт размер пула к новым границам на следующем интервале
+            poolSizeController.configure(limits(newConfig));
+            return;
+        }
+        int maxSize = Math.max(1, getInt(newConfig, "db_pool_max_size", 20));
+        int minIdle = Math.min(maxSize, getInt(newConfig, "db_pool_min_idle", 5));
+        HikariConfigMXBean writeConfig = current.write.getHikariConfigMXBean();
+        if (writeConfig.getMaximumPoolSize() != maxSize || writeConfig.getMinimumIdle() != minIdle) {
+            writeConfig.setMinimumIdle(Math.min(minIdle, writeConfig.getMaximumPoolSize()));
+            writeConfig.setMaximumPoolSize(maxSize);
+            writeConfig.setMinimumIdle(minIdle);
+            plugin.getLogger().info("Размер пула соединений: " + maxSize + ", свободных не меньше " + minIdle);
+        }
+    }
+
+    private void drain(HikariDataSource previous) {
+        Thread drainer = new Thread(() -> {
+            HikariPoolMXBean pool = previous.getHikariPoolMXBean();
+            long warnAt = System.currentTimeMillis() + DRAIN_WARNING_MS;
+            boolean warned = false;
+            try {
+                // softEvictConnections не приостанавливает пул: без minimumIdle он не добирает свободные соединения
+                previous.getHikariConfigMXBean().setMinimumIdle(0);
+                // Свободные соединения закрываются сразу, занятые — при возврате в пул
+                pool.softEvictConnections();
+                // После shutdown() ждать незачем: модуль выгружается
+                while (pool.getActiveConnections() > 0 && pools != null) {
+                    if (!warned && System.currentTimeMillis() >= warnAt) {
+                        warned = true;
+                        plugin.getLogger().warning("Старый пул ждёт возврата занятых соединений дольше "
+                                + DRAIN_WARNING_MS / 1000 + " с: " + pool.getActiveConnections() + ", закрытие отложено до их возврата");
+                    }
+                    Thread.sleep(200);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            previous.close();
+            plugin.getLogger().info("Старый DataSource закрыт.");
+        }, "bridge-pool-drain");
+        drainer.setDaemon(true);
+        drainer.start();
+    }
+
+    private Pools createPools(Map<String, Object> config) {
         String host = (String) config.get("db_host");
         Number port = (Number) config.get("db_port");
         String database = (String) config.get("db_database");
-        String user = (String) config.get("db_user");
-        String password = (String) config.get("db_password");
 
-        String jdbcUrl = "jdbc:mysql://" + host + ":" + port.intValue() + "/" + database;
+        // db_jdbc_url задаёт URL целиком (другой драйвер, параметры соединения, нагрузочный стенд)
+        String jdbcUrlOverride = getString(config, "db_jdbc_url");
+        String jdbcUrl = !jdbcUrlOverride.isEmpty()
+                ? jdbcUrlOverride
+                : "jdbc:mysql://" + host + ":" + port.intValue() + "/" + database;
+
+        int maxSize = Math.max(1, getInt(config, "db_pool_max_size", 20));
+        int minIdle = Math.min(maxSize, getInt(config, "db_pool_min_idle", 5));
+        HikariDataSource write = createDataSource(config, "bridge-write", "db_", jdbcUrl, maxSize, minIdle, false);
+
+        String readJdbcUrl = getString(config, "db_read_jdbc_url");
+        int readSize = getInt(config, "db_read_pool_size", 0);
+        if (readJdbcUrl.isEmpty() && readSize <= 0) {
+            return new Pools(write, null);
+        }
+        readSize = readSize > 0 ? readSize : 5;
+        try {
+            HikariDataSource read = createDataSource(config, "bridge-read", "db_read_",
+                    readJdbcUrl.isEmpty() ? jdbcUrl : readJdbcUrl, readSize, Math.min(minIdle, readSize), true);
+            return new Pools(write, read);
+        } catch (RuntimeException e) {
+            write.close();
+            throw e;
+        }
+    }
 
+    private HikariDataSource createDataSource(Map<String, Object> config, String poolName, String metricPrefix,
+                                              String jdbcUrl, int maxSize, int minIdle, boolean readOnly) {
+        HikariConfig hikariConfig = new HikariConfig();
+
+        hikariConfig.setPoolName(poolName);
         hikariConfig.setJdbcUrl(jdbcUrl);
-        hikariConfig.setUsername(user);
-        hikariConfig.setPassword(password);
+        hikariConfig.setUsername((String) config.get("db_user"));
+        hikariConfig.setPassword((String) config.get("db_password"));
+        hikariConfig.setReadOnly(readOnly);
         hikariConfig.addDataSourceProperty("cachePrepStmts", "true");
         hikariConfig.addDataSourceProperty("prepStmtCacheSize", "250");
         hikariConfig.addDataSourceProperty("prepStmtCacheSqlLimit", "2048");
 
-        hikariConfig.setMaximumPoolSize(20);
-        hikariConfig.setMinimumIdle(5);
+        hikariConfig.setMaximumPoolSize(maxSize);
+        hikariConfig.setMinimumIdle(minIdle);
         hikariConfig.setMaxLifetime(30 * 60 * 1000); // 30 минут
         hikariConfig.setIdleTimeout(10 * 60 * 1000); // 10 минут
         hikariConfig.setConnectionTimeout(15 * 1000); // 15 секунд
@@ -51,30 +189,115 @@ public class DatabaseManager {
         hikariConfig.setConnectionTestQuery("SELECT 1");
         hikariConfig.setLeakDetectionThreshold(60 * 1000); // 1 минута
 
-        try {
-            dataSource = new HikariDataSource(hikariConfig);
-            plugin.getLogger().info("✅ DataSource успешно инициализирован.");
-        } catch (Exception e) {
-            plugin.getLogger().severe("❌ Ошибка инициализации DataSource: " + e.getMessage());
-            throw e;
-        }
+        MetricsRegistry metrics = plugin.getMetrics();
+        LatencyHistogram acquireTime = metrics.histogram(metricPrefix + "connection_acquire_seconds", "Получение соединения из HikariCP (" + poolName + ")");
+        LongAdder acquireTimeouts = metrics.counter(metricPrefix + "connection_timeout_total", "Таймаутов получения соединения (" + poolName + ")");
+        PoolSizeController controller = readOnly ? null : poolSizeController;
+        hikariConfig.setMetricsTrackerFactory((name, poolStats) -> new IMetricsTracker() {
+            @Override
+            public void recordConnectionAcquiredNanos(long elapsedAcquiredNanos) {
+                acquireTime.record(elapsedAcquiredNanos);
+                if (controller != null) {
+                    controller.recordAcquire(elapsedAcquiredNanos);
+                }
+            }
+
+            @Override
+            public void recordConnectionTimeout() {
+                acquireTimeouts.increment();
+            }
+        });
+
+        HikariDataSource created = new HikariDataSource(hikariConfig);
+        HikariPoolMXBean pool = created.getHikariPoolMXBean();
+        HikariConfigMXBean poolConfig = created.getHikariConfigMXBean();
+        metrics.gauge(metricPrefix + "pool_active_connections", "Занятых соединений (" + poolName + ")", () -> pool.getActiveConnections());
+        metrics.gauge(metricPrefix + "pool_idle_connections", "Свободных соединений (" + poolName + ")", () -> pool.getIdleConnections());
+        metrics.gauge(metricPrefix + "pool_total_connections", "Всего соединений (" + poolName + ")", () -> pool.getTotalConnections());
+        metrics.gauge(metricPrefix + "pool_pending_threads", "Потоков в ожидании соединения (" + poolName + ")", () -> pool.getThreadsAwaitingConnection());
+        metrics.gauge(metricPrefix + "pool_max_size", "Текущий maximumPoolSize (" + poolName + ")", () -> poolConfig.getMaximumPoolSize());
+        return created;
+    }
+
+    private static PoolSizeController.Limits limits(Map<String, Object> config) {
+        return new PoolSizeController.Limits(
+                getInt(config, "db_pool_adaptive_min_size", 2),
+                getInt(config, "db_pool_max_size", 20),
+                getInt(config, "db_pool_min_idle", 5),
+                getInt(config, "db_pool_adaptive_wait_ms", 5),
+                getInt(config, "db_pool_adaptive_interval_seconds", 10));
+    }
+
+    private static String getString(Map<String, Object> config, String key) {
+        Object val = config.get(key);
+        return val == null ? "" : val.toString();
     }
 
+    private static int getInt(Map<String, Object> config, String key, int def) {
+        Object val = config.get(key);
+        if (val instanceof Number) return ((Number) val).intValue();
+        try { return Integer.parseInt(val.toString()); } catch (Exception ex) { return def; }
+    }
+
+    private static boolean getBoolean(Map<String, Object> config, String key, boolean def) {
+        Object val = config.get(key);
+        if (val instanceof Boolean) return (Boolean) val;
+        if (val != null) return Boolean.parseBoolean(val.toString());
+        return def;
+    }
+
+    /** Основной пул (запись и всё, что не вынесено в пул чтения) */
     public DataSource getDataSource() {
-        return dataSource;
+        Pools current = pools;
+        return current != null ? current.write : null;
+    }
+
+    /** Пул для выборок, допускающих чтение с реплики; без отдельного пула — основной */
+    public DataSource getReadDataSource() {
+        Pools current = pools;
+        if (current == null) {
+            return null;
+        }
+        return current.read != null ? current.read : current.write;
+    }
+
+    public Semaphore getConnectionPermits() {
+        return connectionPermits;
     }
 
     public Connection getConnection() throws SQLException {
-        if (dataSource == null) {
+        Pools current = pools;
+        if (current == null) {
             throw new SQLException("DataSource не инициализирован.");
         }
-        return dataSource.getConnection();
+        return current.write.getConnection();
     }
 
     public void shutdown() {
-        if (dataSource != null && !dataSource.isClosed()) {
-            dataSource.close();
-            plugin.getLogger().info("DataSource закрыт.");
+        if (poolSizeController != null) {
+            poolSizeController.stop();
+            poolSizeController = null;
+        }
+        Pools current = pools;
+        pools = null;
+        if (current != null) {
+            if (current.read != null && !current.read.isClosed()) {
+                current.read.close();
+            }
+            if (!current.write.isClosed()) {
+                current.write.close();
+                plugin.getLogger().info("DataSource закрыт.");
+            }
+        }
+    }
+
+    private static final class Pools {
+        final HikariDataSource write;
+        final HikariDataSource read;
+
+        Pools(HikariDataSource write, HikariDataSource read) {
+            this.write = write;
+            this.read = read;
         }
     }
 }
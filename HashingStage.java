@@ -0,0 +1,153 @@
+package ru.bont777.bridge;
+
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Ограничение параллельного хеширования паролей (createPassword/verifyPassword).
+ * Не больше parallelism операций одновременно и не больше queueCapacity в ожидании;
+ * при переполнении очереди задача сразу отклоняется с RejectedExecutionException.
+ */
+public class HashingStage {
+
+    private final int parallelism;
+    private final int queueCapacity;
+    private final Queue<Task<?>> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger queued = new AtomicInteger();
+    private final AtomicInteger running = new AtomicInteger();
+
+    private final LongAdder completed = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder totalWaitNanos = new LongAdder();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+    private final LatencyHistogram queueWait;
+
+    public HashingStage(int parallelism, int queueCapacity, LatencyHistogram queueWait) {
+        this.parallelism = Math.max(1, parallelism);
+        this.queueCapacity = Math.max(0, queueCapacity);
+        this.queueWait = queueWait;
+    }
+
+    /** Запуск операции хеширования с учётом лимитов; duration — время самой операции без ожидания в очереди */
+    public <T> CompletableFuture<T> submit(Supplier<CompletableFuture<T>> operation, LatencyHistogram duration) {
+        if (queued.incrementAndGet() > queueCapacity && running.get() >= parallelism) {
+            queued.decrementAndGet();
+            rejected.increment();
+            return CompletableFuture.failedFuture(new RejectedExecutionException("Очередь хеширования переполнена"));
+        }
+        Task<T> task = new Task<>(operation, duration, System.nanoTime());
+        queue.add(task);
+        drain();
+        return task.result;
+    }
+
+    /** true, если новая задача будет отклонена — позволяет отказать до открытия транзакции */
+    public boolean isSaturated() {
+        return queued.get() >= queueCapacity && running.get() >= parallelism;
+    }
+
+    private void drain() {
+        while (!queue.isEmpty()) {
+            int current = running.get();
+            if (current >= parallelism) {
+                return;
+            }
+            if (!running.compareAndSet(current, current + 1)) {
+                continue;
+            }
+            Task<?> task = queue.poll();
+            if (task == null) {
+                running.decrementAndGet();
+                continue;
+            }
+            queued.decrementAndGet();
+            start(task);
+        }
+    }
+
+    private <T> void start(Task<T> task) {
+        long startedAt = System.nanoTime();
+        long waited = startedAt - task.enqueuedAt;
+        totalWaitNanos.add(waited);
+        maxWaitNanos.accumulateAndGet(waited, Math::max);
+        queueWait.record(waited);
+
+        CompletableFuture<T> operation;
+        try {
+            operation = task.operation.get();
+        } catch (Throwable e) {
+            operation = CompletableFuture.failedFuture(e);
+        }
+        operation.whenComplete((value, error) -> {
+            task.duration.recordSince(startedAt);
+            running.decrementAndGet();
+            completed.increment();
+            drain();
+            if (error != null) {
+                task.result.completeExceptionally(error instanceof CompletionException && error.getCause() != null ? error.getCause() : error);
+            } else {
+                task.result.complete(value);
+            }
+        });
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    public int getQueueDepth() {
+        return queued.get();
+    }
+
+    public int getRunning() {
+        return running.get();
+    }
+
+    public long getCompleted() {
+        return completed.sum();
+    }
+
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    public long getTotalWaitNanos() {
+        return totalWaitNanos.sum();
+    }
+
+    public long getMaxWaitNanos() {
+        return maxWaitNanos.get();
+    }
+
+    /** Проверка, что ошибка цепочки вызвана переполнением очереди хеширования */
+    public static boolean isRejection(Throwable e) {
+        while (e instanceof CompletionException && e.getCause() != null) {
+            e = e.getCause();
+        }
+        return e instanceof RejectedExecutionException;
+    }
+
+    private static final class Task<T> {
+        final Supplier<CompletableFuture<T>> operation;
+        final LatencyHistogram duration;
+        final long enqueuedAt;
+        final CompletableFuture<T> result = new CompletableFuture<>();
+
+        Task(Supplier<CompletableFuture<T>> operation, LatencyHistogram duration, long enqueuedAt) {
+            this.operation = operation;
+            this.duration = duration;
+            this.enqueuedAt = enqueuedAt;
+        }
+    }
+}
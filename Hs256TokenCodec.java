@@ -0,0 +1,329 @@
+package ru.bont777.bridge;
+
+import javax.crypto.Mac;
+import javax.crypto.ShortBufferException;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.Key;
+import java.security.MessageDigest;
+import java.util.Arrays;
+
+/**
+ * Выпуск и проверка HS256-токенов с набором claims {sub, iat, exp} без jjwt: заголовок {"alg":"HS256"}
+ * закодирован заранее, инициализированные ключом Mac и буферы берутся из небольшого пула, поэтому
+ * на выпуск приходится одна строка результата. Токен совпадает байт в байт с выпущенным jjwt (jjwt-gson,
+ * порядок sub, iat, exp, даты в секундах, Base64URL без дополнения).
+ * <p>
+ * Имена, которые Gson экранировал бы (кавычка, обратная косая черта, управляющие символы, U+2028/U+2029,
+ * одиночные суррогаты), codec не обрабатывает: encode возвращает null, и токен выпускает jjwt.
+ * decode так же возвращает null для любого токена не этой формы — его проверяет парсер jjwt.
+ */
+public class Hs256TokenCodec {
+
+    private static final byte[] HEADER = "eyJhbGciOiJIUzI1NiJ9.".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] SUB = "{\"sub\":\"".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] IAT = "\",\"iat\":".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] EXP = ",\"exp\":".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] ALPHABET = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_".getBytes(StandardCharsets.US_ASCII);
+    private static final int[] DECODE = new int[128];
+    private static final int SIGNATURE_LENGTH = 32;
+    private static final int SIGNATURE_CHARS = 43;
+
+    static {
+        Arrays.fill(DECODE, -1);
+        for (int i = 0; i < ALPHABET.length; i++) {
+            DECODE[ALPHABET[i]] = i;
+        }
+    }
+
+    private final InstancePool<Buffers> buffers;
+
+    public Hs256TokenCodec(Key key) {
+        this.buffers = new InstancePool<>(() -> new Buffers(key));
+    }
+
+    /** Токен {sub, iat, exp}; null, если имя требует экранирования в JSON */
+    public String encode(String subject, long issuedAtMs, long expiresAtMs) {
+        Buffers b = buffers.acquire();
+        try {
+            return encode(b, subject, issuedAtMs, expiresAtMs);
+        } finally {
+            buffers.release(b);
+        }
+    }
+
+    private static String encode(Buffers b, String subject, long issuedAtMs, long expiresAtMs) {
+        int jsonLength = b.writePayload(subject, issuedAtMs / 1000, expiresAtMs / 1000);
+        if (jsonLength < 0) {
+            return null;
+        }
+        byte[] out = b.ensureToken(HEADER.length + base64Length(jsonLength) + 1 + SIGNATURE_CHARS);
+        System.arraycopy(HEADER, 0, out, 0, HEADER.length);
+        int position = encodeBase64(b.json, jsonLength, out, HEADER.length);
+        b.mac.update(out, 0, position);
+        b.sign();
+        out[position++] = '.';
+        position = encodeBase64(b.signature, SIGNATURE_LENGTH, out, position);
+        // Все символы токена ASCII: строка Latin-1 без перекодирования
+        return new String(out, 0, position, StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Проверка подписи и разбор токена, выпущенного encode или jjwt с тем же набором claims.
+     * Возвращает null, если токен другой формы или подпись не сошлась: окончательное решение
+     * и текст ошибки остаются за jjwt. Срок действия не проверяется — его сверяет вызывающий.
+     */
+    public VerifiedTokenCache.Entry decode(String token) {
+        int length = token.length();
+        int dot = token.lastIndexOf('.');
+        if (dot != length - SIGNATURE_CHARS - 1 || dot <= HEADER.length || length > 4096) {
+            return null;
+        }
+        for (int i = 0; i < HEADER.length; i++) {
+            if (token.charAt(i) != HEADER[i]) {
+                return null;
+            }
+        }
+        Buffers b = buffers.acquire();
+        try {
+            return decode(b, token, dot);
+        } finally {
+            buffers.release(b);
+        }
+    }
+
+    private static VerifiedTokenCache.Entry decode(Buffers b, String token, int dot) {
+        int length = token.length();
+        byte[] in = b.ensureToken(length);
+        for (int i = 0; i < length; i++) {
+            char c = token.charAt(i);
+            if (c >= 128) {
+                return null;
+            }
+            in[i] = (byte) c;
+        }
+        int jsonLength = decodeBase64(in, HEADER.length, dot, b.ensureJson((dot - HEADER.length) * 3 / 4));
+        if (jsonLength < 0 || decodeBase64(in, dot + 1, length, b.expected) != SIGNATURE_LENGTH) {
+            return null;
+        }
+        b.mac.update(in, 0, dot);
+        b.sign();
+        if (!MessageDigest.isEqual(b.signature, b.expected)) {
+            return null;
+        }
+        return b.readPayload(jsonLength);
+    }
+
+    private static int base64Length(int bytes) {
+        return (bytes * 4 + 2) / 3;
+    }
+
+    private static int encodeBase64(byte[] src, int length, byte[] dst, int position) {
+        int i = 0;
+        for (; i + 3 <= length; i += 3) {
+            int bits = (src[i] & 0xFF) << 16 | (src[i + 1] & 0xFF) << 8 | (src[i + 2] & 0xFF);
+            dst[position++] = ALPHABET[bits >>> 18];
+            dst[position++] = ALPHABET[bits >>> 12 & 0x3F];
+            dst[position++] = ALPHABET[bits >>> 6 & 0x3F];
+            dst[position++] = ALPHABET[bits & 0x3F];
+        }
+        int rest = length - i;
+        if (rest > 0) {
+            int bits = (src[i] & 0xFF) << 16 | (rest == 2 ? (src[i + 1] & 0xFF) << 8 : 0);
+            dst[position++] = ALPHABET[bits >>> 18];
+            dst[position++] = ALPHABET[bits >>> 12 & 0x3F];
+            if (rest == 2) {
+                dst[position++] = ALPHABET[bits >>> 6 & 0x3F];
+            }
+        }
+        return position;
+    }
+
+    /** Base64URL без дополнения; -1 при недопустимом символе или длине */
+    private static int decodeBase64(byte[] src, int from, int to, byte[] dst) {
+        if ((to - from) % 4 == 1) {
+            return -1;
+        }
+        int position = 0;
+        int bits = 0;
+        int count = 0;
+        for (int i = from; i < to; i++) {
+            int value = DECODE[src[i]];
+            if (value < 0) {
+                return -1;
+            }
+            bits = bits << 6 | value;
+            if (++count == 4) {
+                dst[position++] = (byte) (bits >>> 16);
+                dst[position++] = (byte) (bits >>> 8);
+                dst[position++] = (byte) bits;
+                count = 0;
+            }
+        }
+        if (count == 3) {
+            dst[position++] = (byte) (bits >>> 10);
+            dst[position++] = (byte) (bits >>> 2);
+        } else if (count == 2) {
+            dst[position++] = (byte) (bits >>> 4);
+        }
+        return position;
+    }
+
+    /** Mac и буферы одного вызова encode/decode */
+    private static final class Buffers {
+        final Mac mac;
+        final byte[] signature = new byte[SIGNATURE_LENGTH];
+        final byte[] expected = new byte[SIGNATURE_LENGTH];
+        byte[] json = new byte[128];
+        byte[] token = new byte[256];
+
+        Buffers(Key key) {
+            try {
+                mac = Mac.getInstance("HmacSHA256");
+                mac.init(key);
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException("HmacSHA256 недоступен", e);
+            }
+        }
+
+        void sign() {
+            try {
+                // doFinal сбрасывает Mac к начальному состоянию с тем же ключом
+                mac.doFinal(signature, 0);
+            } catch (ShortBufferException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        byte[] ensureJson(int length) {
+            if (json.length < length) {
+                json = new byte[Math.max(length, json.length * 2)];
+            }
+            return json;
+        }
+
+        byte[] ensureToken(int length) {
+            if (token.length < length) {
+                token = new byte[Math.max(length, token.length * 2)];
+            }
+            return token;
+        }
+
+        /** {"sub":"...","iat":N,"exp":N} в json; -1, если имя нужно экранировать */
+        int writePayload(String subject, long iat, long exp) {
+            if (subject.isBlank()) {
+                // jjwt не пишет sub из одних пробелов
+                return -1;
+            }
+            byte[] out = ensureJson(SUB.length + subject.length() * 3 + IAT.length + EXP.length + 2 * 20 + 1);
+            System.arraycopy(SUB, 0, out, 0, SUB.length);
+            int position = SUB.length;
+            for (int i = 0; i < subject.length(); i++) {
+                char c = subject.charAt(i);
+                if (c < 0x80) {
+                    if (c < 0x20 || c == '"' || c == '\\') {
+                        return -1;
+                    }
+                    out[position++] = (byte) c;
+                } else if (c < 0x800) {
+                    out[position++] = (byte) (0xC0 | c >>> 6);
+                    out[position++] = (byte) (0x80 | c & 0x3F);
+                } else if (Character.isSurrogate(c) || c == 0x2028 || c == 0x2029) {
+                    return -1;
+                } else {
+                    out[position++] = (byte) (0xE0 | c >>> 12);
+                    out[position++] = (byte) (0x80 | c >>> 6 & 0x3F);
+                    out[position++] = (byte) (0x80 | c & 0x3F);
+                }
+            }
+            System.arraycopy(IAT, 0, out, position, IAT.length);
+            position = writeLong(out, position + IAT.length, iat);
+            System.arraycopy(EXP, 0, out, position, EXP.length);
+            position = writeLong(out, position + EXP.length, exp);
+            out[position++] = '}';
+            return position;
+        }
+
+        /** Разбор ровно того JSON, который пишет writePayload; иначе null */
+        VerifiedTokenCache.Entry readPayload(int length) {
+            byte[] in = json;
+            if (!startsWith(in, 0, length, SUB)) {
+                return null;
+            }
+            int start = SUB.length;
+            int end = start;
+            while (end < length && in[end] != '"') {
+                if (in[end] == '\\' || (in[end] & 0xFF) < 0x20) {
+                    return null;
+                }
+                end++;
+            }
+            if (!startsWith(in, end, length, IAT)) {
+                return null;
+            }
+            int position = end + IAT.length;
+            int iatEnd = skipDigits(in, position, length);
+            if (iatEnd < 0 || !startsWith(in, iatEnd, length, EXP)) {
+                return null;
+            }
+            long iat = parseLong(in, position, iatEnd);
+            position = iatEnd + EXP.length;
+            int expEnd = skipDigits(in, position, length);
+            if (expEnd < 0 || expEnd != length - 1 || in[expEnd] != '}') {
+                return null;
+            }
+            long exp = parseLong(in, position, expEnd);
+            String subject = new String(in, start, end - start, StandardCharsets.UTF_8);
+            return new VerifiedTokenCache.Entry(subject, iat * 1000, exp * 1000);
+        }
+
+        private static boolean startsWith(byte[] in, int from, int length, byte[] prefix) {
+            if (from + prefix.length > length) {
+                return false;
+            }
+            for (int i = 0; i < prefix.length; i++) {
+                if (in[from + i] != prefix[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        // Конец цифр числа (от 1 до 18 цифр, без знака и ведущих нулей); -1 — не число
+        private static int skipDigits(byte[] in, int from, int length) {
+            int i = from;
+            while (i < length && in[i] >= '0' && in[i] <= '9') {
+                i++;
+            }
+            int digits = i - from;
+            return digits == 0 || digits > 18 || digits > 1 && in[from] == '0' ? -1 : i;
+        }
+
+        private static long parseLong(byte[] in, int from, int to) {
+            long value = 0;
+            for (int i = from; i < to; i++) {
+                value = value * 10 + (in[i] - '0');
+            }
+            return value;
+        }
+
+        private static int writeLong(byte[] out, int position, long value) {
+            if (value < 0) {
+                out[position++] = '-';
+                value = -value;
+            }
+            int start = position;
+            do {
+                out[position++] = (byte) ('0' + value % 10);
+                value /= 10;
+            } while (value != 0);
+            // Цифры записаны с конца
+            for (int i = start, j = position - 1; i < j; i++, j--) {
+                byte t = out[i];
+                out[i] = out[j];
+                out[j] = t;
+            }
+            return position;
+        }
+    }
+}
@@ -1,134 +1,647 @@
 package ru.bont777.bridge;
 
 import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
 import io.github.blackbaroness.baronessauth.bungee.api.BaronessAuthBungeeAPI;
-import io.github.blackbaroness.baronessauth.bungee.api.model.Transaction;
-import io.github.blackbaroness.baronessauth.bungee.api.model.entity.PlayerProfile;
-import io.github.blackbaroness.baronessauth.bungee.api.model.ProfilePassword;
 import io.javalin.Javalin;
+import io.javalin.compression.CompressionStrategy;
+import io.javalin.compression.Gzip;
 import io.javalin.http.Context;
 import io.javalin.http.HttpResponseException;
+import org.eclipse.jetty.server.AbstractConnector;
+import org.eclipse.jetty.server.ConnectionFactory;
+import org.eclipse.jetty.server.Connector;
+import org.eclipse.jetty.server.HttpConfiguration;
+import org.eclipse.jetty.server.HttpConnectionFactory;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.util.component.LifeCycle;
 
 import javax.sql.DataSource;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.logging.Logger;
+import java.util.stream.Stream;
 
 public class HttpServerManager {
 
-    private final BaronessLaravelBridge plugin;
+    private static final String TRACE_ATTRIBUTE = "requestTrace";
+    private static final String ADMIN_TOKEN_HEADER = "X-Admin-Token";
+
+    private final BridgeContext plugin;
     private final BaronessAuthBungeeAPI api;
     private final JwtManager jwtManager;
+    private final AuthService authService;
+    private final ThreadMode threadMode;
     private final Gson gson = new Gson();
+    private final GsonMapper jsonMapper = new GsonMapper();
     private final Logger logger;
+    private final MetricsRegistry metrics;
+    private final LatencyHistogram jwtValidationTime;
+    private final LatencyHistogram authTime;
+    private final LongAdder serverErrors;
+    private final LongAdder overloadedResponses;
+    private final LongAdder throttledResponses;
+    // Последние запросы /api/baronessauth для /api/debug/traces
+    private final RequestTraceBuffer traces;
+    // Выгрузка профилей для /api/profiles/sync; null, если выключена
+    private final ProfileSync profileSync;
+    // Выгрузка читает базу постранично всё время ответа, поэтому идёт не в потоке Jetty
+    private final ExecutorService profileSyncExecutor;
+    // Ограничители попыток пересоздаются при изменении auth_throttle_* в config.yml
+    private volatile Throttle throttle;
     private Javalin app;
 
-    public HttpServerManager(BaronessLaravelBridge plugin, BaronessAuthBungeeAPI api, JwtManager jwtManager) {
+    public HttpServerManager(BridgeContext plugin, BaronessAuthBungeeAPI api, JwtManager jwtManager, ThreadMode threadMode) {
         this.plugin = plugin;
         this.api = api;
         this.jwtManager = jwtManager;
+        this.authService = new AuthService(plugin, api, jwtManager);
+        this.threadMode = threadMode;
         this.logger = plugin.getLogger();
+        this.metrics = plugin.getMetrics();
+        this.jwtValidationTime = metrics.histogram("jwt_validation_seconds", "Проверка JWT в middleware");
+        this.authTime = metrics.histogram("auth_request_seconds", "Полное время обработки /api/baronessauth");
+        this.serverErrors = metrics.counter("http_500_total", "Ответов 500");
+        this.overloadedResponses = metrics.counter("http_429_total", "Ответов 429 из-за перегрузки хеширования");
+        this.throttledResponses = metrics.counter("auth_throttled_total", "Попыток входа, отклонённых по лимиту логина или IP");
+        this.traces = new RequestTraceBuffer(plugin.getConfigManager().getInt("request_trace_size", 1024));
+        metrics.counterOf("request_trace_dropped_total", "Трассировок, не попавших в буфер из-за обгона по кругу", traces::getDropped);
+        this.profileSync = plugin.getConfigManager().getBoolean("profile_sync_enabled", false) ? new ProfileSync(plugin) : null;
+        this.profileSyncExecutor = profileSync != null ? threadMode.newTaskExecutor() : null;
+        this.throttle = new Throttle(plugin.getConfigManager().snapshot());
+        plugin.getConfigManager().addListener((previous, next) -> {
+            if (!previous.sameValues(next, Throttle.KEYS)) {
+                throttle = new Throttle(next);
+            }
+        });
+        metrics.counterOf("jwt_cache_hits_total", "Попаданий в кеш проверенных JWT", jwtManager::getCacheHits);
+        metrics.counterOf("jwt_cache_misses_total", "Промахов кеша проверенных JWT", jwtManager::getCacheMisses);
+        metrics.counterOf("jwt_revoked_total", "JWT, отклонённых после смены пароля владельца", jwtManager::getRevokedRejections);
+        metrics.gauge("jwt_revocation_entries", "Игроков с отозванными JWT", jwtManager::getRevocationCount);
     }
 
     public void start(int port) {
+        ConfigSnapshot settings = plugin.getConfigManager().snapshot();
         app = Javalin.create(config -> {
-            config.jsonMapper(new GsonMapper());
-        }).start(port);
+            config.jsonMapper(jsonMapper);
+            config.jetty.server(() -> createServer(settings, port));
+            // Ответы /api короткие; сжатие окупается только для крупных (пакетные ответы, /metrics)
+            if ("none".equalsIgnoreCase(settings.getString("http_compression"))) {
+                config.compression.none();
+            } else {
+                CompressionStrategy compression = new CompressionStrategy(null, new Gzip(settings.getInt("http_compression_level", 6)));
+                compression.setMinSizeForCompression(settings.getInt("http_compression_min_size", 1500));
+                config.compression.custom(compression);
+            }
+        }).start();
 
         app.before("/api/*", this::jwtAuthMiddleware);
         app.post("/api/baronessauth", this::handleAuth);
+        app.post("/api/baronessauth/batch", this::handleAuthBatch);
+        if (traces.isEnabled()) {
+            app.get("/api/debug/traces", this::handleTraces);
+        }
+        if (profileSync != null) {
+            app.get("/api/profiles/sync", this::handleProfileSync);
+        }
+        if (plugin.getConfigManager().getBoolean("metrics_enabled", true)) {
+            app.get("/metrics", this::handleMetrics);
+        }
+        // Открытые ключи для локальной проверки токенов ES256 (без JWT)
+        app.get("/.well-known/jwks.json", this::handleJwks);
+
+        boolean tcp = settings.getBoolean("http_tcp_enabled", true) || settings.getString("http_unix_socket_path").isEmpty();
+        logger.info("REST API запущен " + (tcp ? "на порту " + port : "только на Unix-сокете") + " (thread_mode: " + threadMode.name().toLowerCase()
+                + (settings.getBoolean("http_h2c", false) ? ", h2c" : "") + ")");
+    }
 
-        logger.info("REST API запущен на порту " + port);
+    /** Jetty с коннекторами из секции http_* config.yml: TCP и/или Unix-сокет с общими маршрутами */
+    private Server createServer(ConfigSnapshot settings, int port) {
+        Server server = new Server(threadMode.newJettyThreadPool(
+                settings.getInt("http_min_threads", 8),
+                settings.getInt("http_max_threads", 200),
+                settings.getInt("http_queue_size", 1024)));
+
+        HttpConfiguration httpConfig = new HttpConfiguration();
+        httpConfig.setSendServerVersion(false);
+        String socketPath = settings.getString("http_unix_socket_path");
+        boolean tcp = settings.getBoolean("http_tcp_enabled", true) || socketPath.isEmpty();
+
+        if (tcp) {
+            ServerConnector connector = new ServerConnector(server,
+                    settings.getInt("http_acceptors", -1),
+                    settings.getInt("http_selectors", -1),
+                    connectionFactories(settings, httpConfig));
+            connector.setPort(port);
+            String host = settings.getString("http_host");
+            if (!host.isEmpty()) {
+                connector.setHost(host);
+            }
+            connector.setIdleTimeout(settings.getInt("http_idle_timeout_ms", 30_000));
+            connector.setAcceptQueueSize(settings.getInt("http_accept_queue_size", 0));
+            server.addConnector(connector);
+        }
+        // Unix-сокет добавляется вторым: Javalin берёт порт из первого коннектора
+        if (!socketPath.isEmpty()) {
+            Connector unixConnector = createUnixConnector(server, settings, httpConfig, socketPath);
+            if (unixConnector != null) {
+                server.addConnector(unixConnector);
+            } else if (!tcp) {
+                throw new IllegalStateException("http_tcp_enabled: false, но Unix-сокет недоступен");
+            }
+        }
+        return server;
+    }
+
+    /** HTTP/1.1 и при http_h2c — HTTP/2 без TLS; у каждого коннектора свои экземпляры */
+    private ConnectionFactory[] connectionFactories(ConfigSnapshot settings, HttpConfiguration httpConfig) {
+        List<ConnectionFactory> factories = new ArrayList<>();
+        factories.add(new HttpConnectionFactory(httpConfig));
+        if (settings.getBoolean("http_h2c", false)) {
+            // HTTP/2 без TLS: и Upgrade: h2c, и прямое подключение (prior knowledge).
+            // http2-server — необязательная зависимость, поэтому класс загружается по имени
+            try {
+                factories.add((ConnectionFactory) Class.forName("org.eclipse.jetty.http2.server.HTTP2CServerConnectionFactory")
+                        .getConstructor(HttpConfiguration.class)
+                        .newInstance(httpConfig));
+            } catch (ReflectiveOperationException | LinkageError e) {
+                logger.warning("http2-server не найден в classpath, h2c отключён: " + e);
+            }
+        }
+        return factories.toArray(new ConnectionFactory[0]);
+    }
+
+    /**
+     * Коннектор Unix-сокета (jetty-unixdomain-server, Java 16+) или null, если модуль недоступен.
+     * Laravel на том же хосте ходит в него без TCP-стека loopback (curl: CURLOPT_UNIX_SOCKET_PATH).
+     */
+    private Connector createUnixConnector(Server server, ConfigSnapshot settings, HttpConfiguration httpConfig, String socketPath) {
+        Path path = Paths.get(socketPath);
+        if (!path.isAbsolute()) {
+            path = plugin.getConfigManager().getDataFolder().toPath().resolve(path);
+        }
+        AbstractConnector connector;
+        try {
+            connector = (AbstractConnector) Class.forName("org.eclipse.jetty.unixdomain.server.UnixDomainServerConnector")
+                    .getConstructor(Server.class, int.class, int.class, ConnectionFactory[].class)
+                    .newInstance(server, settings.getInt("http_acceptors", -1), settings.getInt("http_selectors", -1),
+                            connectionFactories(settings, httpConfig));
+            connector.getClass().getMethod("setUnixDomainPath", Path.class).invoke(connector, path);
+            connector.getClass().getMethod("setAcceptQueueSize", int.class)
+                    .invoke(connector, settings.getInt("http_accept_queue_size", 0));
+        } catch (ReflectiveOperationException | LinkageError e) {
+            logger.warning("jetty-unixdomain-server не найден в classpath или Java ниже 16, Unix-сокет отключён: " + e);
+            return null;
+        }
+        connector.setIdleTimeout(settings.getInt("http_idle_timeout_ms", 30_000));
+        removeStaleSocket(path);
+
+        // Файл сокета создаётся при bind, права выставляются сразу после запуска коннектора
+        Path socketFile = path;
+        String permissions = settings.getString("http_unix_socket_permissions");
+        connector.addEventListener(new LifeCycle.Listener() {
+            @Override
+            public void lifeCycleStarted(LifeCycle event) {
+                if (permissions.isEmpty()) {
+                    return;
+                }
+                try {
+                    Files.setPosixFilePermissions(socketFile, PosixFilePermissions.fromString(permissions));
+                } catch (IOException | IllegalArgumentException | UnsupportedOperationException e) {
+                    logger.warning("Не удалось выставить права " + permissions + " на " + socketFile + ": " + e);
+                }
+            }
+        });
+        logger.info("REST API слушает Unix-сокет " + path);
+        return connector;
+    }
+
+    // Сокет остаётся после аварийной остановки и мешает bind; обычные файлы и каталоги не трогаем
+    private void removeStaleSocket(Path path) {
+        try {
+            if (Files.exists(path, LinkOption.NOFOLLOW_LINKS) && Files.readAttributes(path, BasicFileAttributes.class,
+                    LinkOption.NOFOLLOW_LINKS).isOther()) {
+                Files.delete(path);
+                plugin.logDebug("Удалён оставшийся файл сокета {}", path);
+            }
+        } catch (IOException e) {
+            logger.warning("Не удалось удалить старый файл сокета " + path + ": " + e.getMessage());
+        }
     }
 
     private void jwtAuthMiddleware(Context ctx) {
-        String authHeader = ctx.header("Authorization");
-        if (authHeader == null || !authHeader.startsWith("Bearer ")) {
+        String token = extractBearerToken(ctx.header("Authorization"));
+        if (token == null) {
             ctx.status(401).result("Unauthorized");
             throw new HttpResponseException(401, "Unauthorized");
         }
-        String token = authHeader.substring(7);
+        long start = System.nanoTime();
         try {
             String username = jwtManager.validateTokenAndGetUsername(token);
-            plugin.logDebug("Успешная проверка JWT для " + username);
+            jwtValidationTime.recordSince(start);
+            plugin.logDebug("Успешная проверка JWT для {}", username);
             ctx.attribute("username", username);
+            RequestTrace trace = traces.begin(start);
+            trace.mark(RequestTrace.Stage.JWT);
+            ctx.attribute(TRACE_ATTRIBUTE, trace);
         } catch (Exception e) {
+            jwtValidationTime.recordSince(start);
             ctx.status(401).result("Unauthorized");
-            plugin.logDebug("Ошибка проверки JWT: " + e.getMessage());
+            plugin.logDebug("Ошибка проверки JWT: {}", e.getMessage());
             throw new HttpResponseException(401, "Unauthorized");
         }
     }
 
+    /** Токен из заголовка "Authorization: Bearer ..." или null */
+    static String extractBearerToken(String authHeader) {
+        if (authHeader == null || !authHeader.startsWith("Bearer ")) {
+            return null;
+        }
+        return authHeader.substring(7);
+    }
+
     private void handleAuth(Context ctx) {
+        long start = System.nanoTime();
+        RequestTrace attached = ctx.attribute(TRACE_ATTRIBUTE);
+        RequestTrace trace = attached != null ? attached : traces.begin(start);
+        String login = null;
         try {
             ctx.contentType("application/json");
-            JsonObject json = gson.fromJson(ctx.body(), JsonObject.class);
-            String login = json.has("login") ? json.get("login").getAsString() : null;
-            String passwordStr = json.has("password") ? json.get("password").getAsString() : null;
-            final JsonObject[] responseHolder = new JsonObject[1];
-            plugin.logDebug("Получен запрос аутентификации. login=" + login);
+            AuthService.Credentials credentials = AuthJsonCodec.readCredentials(ctx.bodyInputStream());
+            login = credentials.getLogin();
+            String passwordStr = credentials.getPassword();
+            plugin.logDebug("Получен запрос аутентификации. login={}", login);
 
             if (login == null || passwordStr == null) {
                 plugin.logDebug("Отсутствует логин или пароль");
                 ctx.status(400).json(Map.of("error", "Логин и пароль обязательны"));
+                traces.record(trace, login, RequestTrace.Outcome.BAD_REQUEST);
                 return;
             }
 
-            api.inDatabase(tx -> {
-                JsonObject response = new JsonObject();
-                String jwtToken = jwtManager.generateToken(login);
-                PlayerProfile profile = tx.findProfileByName(login);
-                if (profile == null) {
-                    plugin.logDebug("Профиль не найден, регистрация нового пользователя: " + login);
-                    response.addProperty("status", "OK");
-                    response.addProperty("action", "register");
-
-                    tx.createProfile(login, profilelogin -> {
-                        ProfilePassword password = api.createPassword(passwordStr).join();
-                        profilelogin.setPassword(password);
-                        profilelogin.setPremium(false);
-                        plugin.logDebug("Пароль установлен для нового пользователя: " + login);
-                    });
-
-                    response.addProperty("name", login);
-                    response.addProperty("jwt", jwtToken);
-                    responseHolder[0] = response;
-                } else {
-                    plugin.logDebug("Профиль найден, проверка пароля для пользователя: " + login);
-                    response.addProperty("jwt", jwtToken);
-
-                    api.verifyPassword(passwordStr, profile.getPassword())
-                       .thenAccept(isValid -> {
-                           if (isValid) {
-                               response.addProperty("action", "login");
-                               response.addProperty("status", "OK");
-                               plugin.logDebug("Пароль корректен для пользователя: " + login);
-                           } else {
-                               response.addProperty("error", "Неверный пароль");
-                               response.addProperty("status", "error");
-                               plugin.logDebug("Неверный пароль для пользователя: " + login);
-                           }
-                           response.addProperty("name", login);
-                           responseHolder[0] = response;
-                       }).join();
+            // Лимит попыток проверяется до транзакции BaronessAuth и хеширования
+            Throttle throttle = this.throttle;
+            if (!throttle.tryAcquire(ctx, login, 1)) {
+                respondThrottled(ctx, throttle);
+                traces.record(trace, login, RequestTrace.Outcome.THROTTLED);
+                return;
+            }
+
+            // Очередь хеширования заполнена — отказываем до открытия транзакции
+            if (authService.getHashingStage().isSaturated()) {
+                respondOverloaded(ctx);
+                traces.record(trace, login, RequestTrace.Outcome.OVERLOADED);
+                return;
+            }
+
+            // Поток Jetty освобождается сразу, ответ отправляется по завершении цепочки
+            String traceLogin = login;
+            trace.mark(RequestTrace.Stage.DISPATCH);
+            ctx.future(() -> authService.authenticate(traceLogin, passwordStr, trace)
+                    .thenAccept(response -> {
+                        trace.mark(RequestTrace.Stage.AUTH);
+                        ctx.status(200);
+                        try {
+                            AuthJsonCodec.writeResult(response, ctx.outputStream());
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                        trace.mark(RequestTrace.Stage.RESPONSE);
+                        traces.record(trace, traceLogin, RequestTrace.Outcome.of(response));
+                        plugin.logDebug("Ответ клиенту: 200 OK");
+                    })
+                    .exceptionally(e -> {
+                        respondFailure(ctx, e);
+                        traces.record(trace, traceLogin, HashingStage.isRejection(e)
+                                ? RequestTrace.Outcome.OVERLOADED : RequestTrace.Outcome.ERROR);
+                        return null;
+                    })
+                    .whenComplete((done, e) -> authTime.recordSince(start)));
+
+        } catch (Exception e) {
+            respondInternalError(ctx, e);
+            traces.record(trace, login, RequestTrace.Outcome.ERROR);
+        }
+    }
+
+    /**
+     * Последние запросы /api/baronessauth из кольцевого буфера, новые первыми.
+     * Параметры: limit — число записей, login — только этот логин, min_ms — не быстрее этого времени.
+     * Доступно только JWT с subject из request_trace_subjects и с admin_api_token в заголовке X-Admin-Token.
+     */
+    private void handleTraces(Context ctx) {
+        if (!isPrivileged(ctx, "request_trace_subjects")) {
+            ctx.status(403).json(Map.of("error", "Недостаточно прав"));
+            return;
+        }
+        int limit = parseParam(ctx.queryParam("limit"), 100);
+        long minNanos = parseParam(ctx.queryParam("min_ms"), 0) * 1_000_000L;
+        String login = ctx.queryParam("login");
+        Long loginHash = login != null ? traces.loginHash(login) : null;
+
+        JsonArray items = new JsonArray();
+        RequestTrace.Stage[] stages = RequestTrace.Stage.values();
+        for (RequestTraceBuffer.Entry entry : traces.recent()) {
+            if (items.size() >= limit) {
+                break;
+            }
+            if (entry.totalNanos < minNanos || (loginHash != null && entry.loginHash != loginHash)) {
+                continue;
+            }
+            JsonObject item = new JsonObject();
+            item.addProperty("time", entry.startEpochMs);
+            item.addProperty("login_hash", Long.toHexString(entry.loginHash));
+            item.addProperty("outcome", entry.outcome.name());
+            item.addProperty("total_us", entry.totalNanos / 1000);
+            JsonObject stageTimes = new JsonObject();
+            for (RequestTrace.Stage stage : stages) {
+                long nanos = entry.stageNanos[stage.ordinal()];
+                if (nanos >= 0) {
+                    stageTimes.addProperty(stage.name().toLowerCase(Locale.ROOT) + "_us", nanos / 1000);
                 }
-            }).join();
+            }
+            item.add("stages", stageTimes);
+            items.add(item);
+        }
+        JsonObject result = new JsonObject();
+        result.addProperty("capacity", traces.getCapacity());
+        result.addProperty("dropped", traces.getDropped());
+        result.add("traces", items);
+        ctx.contentType("application/json").result(result.toString());
+    }
 
-            ctx.status(200).json(responseHolder[0]);
-            plugin.logDebug("Ответ клиенту: 200 OK");
+    /**
+     * Профили BaronessAuth, изменённые после курсора, массивом JSON [{name, premium, changed_at}] в порядке
+     * (changed_at, name). Параметры: since — время изменения в мс эпохи (по умолчанию 0), after — имя
+     * последнего полученного профиля с этим временем. Для продолжения передаются changed_at и name
+     * последнего элемента. Доступно только JWT с subject из profile_sync_subjects и с admin_api_token в заголовке X-Admin-Token.
+     */
+    private void handleProfileSync(Context ctx) {
+        String subject = ctx.attribute("username");
+        if (!isPrivileged(ctx, "profile_sync_subjects")) {
+            ctx.status(403).json(Map.of("error", "Недостаточно прав"));
+            return;
+        }
+        long since;
+        try {
+            String sinceParam = ctx.queryParam("since");
+            since = sinceParam != null ? Long.parseLong(sinceParam) : 0L;
+        } catch (NumberFormatException e) {
+            ctx.status(400).json(Map.of("error", "since — время в миллисекундах"));
+            return;
+        }
+        String after = ctx.queryParam("after");
+        if (!profileSync.tryBegin()) {
+            ctx.header("Retry-After", "5");
+            ctx.status(429).json(Map.of("error", "Выгрузка профилей уже выполняется, повторите позже"));
+            return;
+        }
+        String cursorName = after != null ? after : "";
+        // Выгрузка стартует в поставщике, как в handleAuth: Javalin вызывает его, когда асинхронный ответ
+        // уже начат, и поток выгрузки не пишет в ответ раньше. Поток Jetty освобождается сразу;
+        // разрешение profileSync отпускается по окончании выгрузки
+        ctx.future(() -> {
+            try {
+                return CompletableFuture.runAsync(() -> streamProfiles(ctx, subject, since, cursorName), profileSyncExecutor);
+            } catch (RejectedExecutionException e) {
+                // Исполнитель уже остановлен вместе с сервером
+                profileSync.end();
+                ctx.status(503).json(Map.of("error", "Сервер останавливается"));
+                return CompletableFuture.completedFuture(null);
+            }
+        });
+    }
+
+    private void streamProfiles(Context ctx, String subject, long since, String after) {
+        try (Stream<ProfileSync.Profile> profiles = profileSync.changedSince(since, after)) {
+            plugin.logDebug("Выгрузка профилей для {} с {}", subject, since);
+            ctx.status(200).contentType("application/json");
+            try {
+                jsonMapper.writeToOutputStream(profiles, ctx.outputStream());
+            } catch (RuntimeException e) {
+                // Ответ уже начат: клиент получит оборванный массив и повторит с последнего курсора
+                logger.warning("Выгрузка профилей прервана: " + e.getMessage());
+            }
+        } catch (SQLException e) {
+            logger.warning("Ошибка выгрузки профилей: " + e.getMessage());
+            respondInternalError(ctx, e);
+        } finally {
+            profileSync.end();
+        }
+    }
+
+    /**
+     * Служебный запрос: subject JWT из списка key и верный admin_api_token. Одного subject мало — тем же ключом
+     * подписаны токены игроков из /api/baronessauth, и игрок с логином из списка получил бы доступ.
+     */
+    private boolean isPrivileged(Context ctx, String key) {
+        if (!isAllowedSubject(ctx.attribute("username"), key)) {
+            return false;
+        }
+        String expected = plugin.getConfigManager().getString("admin_api_token");
+        String presented = ctx.header(ADMIN_TOKEN_HEADER);
+        if (expected == null || expected.isEmpty() || presented == null) {
+            return false;
+        }
+        // Сравнение за постоянное время, чтобы токен нельзя было подобрать по времени ответа
+        return MessageDigest.isEqual(expected.getBytes(StandardCharsets.UTF_8), presented.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private boolean isAllowedSubject(String subject, String key) {
+        if (subject == null) {
+            return false;
+        }
+        for (String allowed : plugin.getConfigManager().getString(key).split(",")) {
+            if (allowed.trim().equals(subject)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static int parseParam(String value, int def) {
+        try {
+            return value != null ? Math.max(0, Integer.parseInt(value)) : def;
+        } catch (NumberFormatException e) {
+            return def;
+        }
+    }
+
+    private void handleMetrics(Context ctx) {
+        ctx.contentType("text/plain; version=0.0.4; charset=utf-8").result(metrics.scrape());
+    }
+
+    private void handleJwks(Context ctx) {
+        // Набор ключей меняется только при ротации, отдаём готовые байты
+        ctx.header("Cache-Control", "public, max-age=300")
+                .contentType("application/json")
+                .result(jwtManager.getJwksJson());
+    }
+
+    private void handleAuthBatch(Context ctx) {
+        try {
+            ctx.contentType("application/json");
+            JsonElement body;
+            try {
+                body = gson.fromJson(ctx.body(), JsonElement.class);
+            } catch (JsonParseException e) {
+                plugin.logDebug("Некорректный JSON пакетного запроса: {}", e.getMessage());
+                ctx.status(400).json(Map.of("error", "Некорректный JSON"));
+                return;
+            }
+            int maxItems = plugin.getConfigManager().getInt("batch_max_items", 100);
+            if (body == null || !body.isJsonArray() || body.getAsJsonArray().size() > maxItems) {
+                ctx.status(400).json(Map.of("error", "Ожидается массив не более чем из " + maxItems + " элементов"));
+                return;
+            }
+            JsonArray json = body.getAsJsonArray();
+            // Лимит по IP учитывает каждый элемент пакета как отдельную попытку
+            Throttle throttle = this.throttle;
+            if (!throttle.tryAcquireIp(ctx, Math.max(1, json.size()))) {
+                respondThrottled(ctx, throttle);
+                return;
+            }
+            List<AuthService.Credentials> items = new ArrayList<>(json.size());
+            for (JsonElement element : json) {
+                JsonObject item = element.isJsonObject() ? element.getAsJsonObject() : new JsonObject();
+                String login = stringMember(item, "login");
+                String passwordStr = stringMember(item, "password");
+                AuthService.Credentials credentials = new AuthService.Credentials(login, passwordStr);
+                if (login != null && !throttle.tryAcquireLogin(login)) {
+                    throttledResponses.increment();
+                    credentials = credentials.throttled();
+                }
+                items.add(credentials);
+            }
+            plugin.logDebug("Получен пакетный запрос аутентификации, элементов: {}", items.size());
+
+            ctx.future(() -> authService.authenticateBatch(items)
+                    .thenAccept(responses -> {
+                        ctx.status(200);
+                        jsonMapper.writeToOutputStream(responses.stream(), ctx.outputStream());
+                        plugin.logDebug("Ответ клиенту: 200 OK, элементов: {}", responses.size());
+                    })
+                    .exceptionally(e -> {
+                        respondFailure(ctx, e);
+                        return null;
+                    }));
 
         } catch (Exception e) {
-            plugin.logDebug("Ошибка обработки запроса /api/baronessauth: " + e);
-            JsonObject errorResponse = new JsonObject();
-            errorResponse.addProperty("error", "Внутренняя ошибка сервера");
-            ctx.status(500).json(errorResponse);
+            respondInternalError(ctx, e);
+        }
+    }
+
+    /** Строковое поле элемента пакета; null, объект и массив считаются отсутствующим полем */
+    private static String stringMember(JsonObject item, String name) {
+        JsonElement value = item.get(name);
+        return value != null && value.isJsonPrimitive() ? value.getAsString() : null;
+    }
+
+    private void respondFailure(Context ctx, Throwable e) {
+        if (HashingStage.isRejection(e)) {
+            respondOverloaded(ctx);
+        } else {
+            respondInternalError(ctx, e);
         }
     }
 
+    private void respondOverloaded(Context ctx) {
+        overloadedResponses.increment();
+        HashingStage stage = authService.getHashingStage();
+        plugin.logDebug("Очередь хеширования переполнена: в очереди {}, выполняется {}", stage.getQueueDepth(), stage.getRunning());
+        ctx.header("Retry-After", String.valueOf(plugin.getConfigManager().getInt("hashing_retry_after_seconds", 1)));
+        ctx.status(429).json(Map.of("error", "Сервер перегружен, повторите позже"));
+    }
+
+    private void respondThrottled(Context ctx, Throttle throttle) {
+        throttledResponses.increment();
+        plugin.logDebug("Превышен лимит попыток входа, IP {}", ctx.ip());
+        ctx.header("Retry-After", String.valueOf(throttle.retryAfterSeconds));
+        ctx.status(429).json(Map.of("error", AuthResult.TOO_MANY_ATTEMPTS));
+    }
+
+    private void respondInternalError(Context ctx, Throwable e) {
+        serverErrors.increment();
+        plugin.logDebug("Ошибка обработки запроса /api/baronessauth: {}", e);
+        JsonObject errorResponse = new JsonObject();
+        errorResponse.addProperty("error", "Внутренняя ошибка сервера");
+        ctx.status(500).json(errorResponse);
+    }
+
     public void stop() {
         if (app != null) {
             app.stop();
             logger.info("REST API остановлен.");
         }
+        if (profileSyncExecutor != null) {
+            profileSyncExecutor.shutdownNow();
+        }
+    }
+
+    /** Лимиты попыток входа по логину и по IP клиента (auth_throttle_*) */
+    private static final class Throttle {
+        static final String[] KEYS = {
+                "auth_throttle_window_seconds", "auth_throttle_login_limit", "auth_throttle_ip_limit",
+                "auth_throttle_ip_header", "auth_throttle_sketch_width"
+        };
+
+        final AttemptLimiter byLogin;
+        final AttemptLimiter byIp;
+        final String ipHeader;
+        final long retryAfterSeconds;
+
+        Throttle(ConfigSnapshot config) {
+            long windowMs = Math.max(1, config.getInt("auth_throttle_window_seconds", 60)) * 1000L;
+            int width = config.getInt("auth_throttle_sketch_width", 16384);
+            this.byLogin = new AttemptLimiter(config.getInt("auth_throttle_login_limit", 10), windowMs, width);
+            this.byIp = new AttemptLimiter(config.getInt("auth_throttle_ip_limit", 0), windowMs, width);
+            this.ipHeader = config.getString("auth_throttle_ip_header");
+            this.retryAfterSeconds = byLogin.getWindowSeconds();
+        }
+
+        boolean tryAcquire(Context ctx, String login, int permits) {
+            return tryAcquireIp(ctx, permits) && tryAcquireLogin(login);
+        }
+
+        boolean tryAcquireIp(Context ctx, int permits) {
+            return byIp.tryAcquire(clientIp(ctx), permits, System.currentTimeMillis());
+        }
+
+        boolean tryAcquireLogin(String login) {
+            return byLogin.tryAcquire(login.toLowerCase(Locale.ROOT), 1, System.currentTimeMillis());
+        }
+
+        // За Laravel или обратным прокси адрес игрока передаётся заголовком (первый адрес X-Forwarded-For)
+        private String clientIp(Context ctx) {
+            if (!ipHeader.isEmpty()) {
+                String forwarded = ctx.header(ipHeader);
+                if (forwarded != null && !forwarded.isEmpty()) {
+                    int comma = forwarded.indexOf(',');
+                    return (comma >= 0 ? forwarded.substring(0, comma) : forwarded).trim();
+                }
+            }
+            return ctx.ip();
+        }
     }
 }
@@ -0,0 +1,36 @@
+package ru.bont777.bridge;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.function.Supplier;
+
+/**
+ * Ограниченный пул переиспользуемых объектов (Mac, MessageDigest, буферы) вместо ThreadLocal:
+ * с виртуальными потоками на запрос каждый поток живёт один запрос, и его ThreadLocal не переиспользуется.
+ * Пустой пул создаёт новый объект, лишний при возврате отбрасывается.
+ */
+final class InstancePool<T> {
+
+    /** Объекты нужны только на время вычислений без блокировок: больше, чем потоков на ядрах, не держим */
+    static final int DEFAULT_CAPACITY = Math.max(4, 2 * Runtime.getRuntime().availableProcessors());
+
+    private final ArrayBlockingQueue<T> idle;
+    private final Supplier<T> factory;
+
+    InstancePool(Supplier<T> factory) {
+        this(DEFAULT_CAPACITY, factory);
+    }
+
+    InstancePool(int capacity, Supplier<T> factory) {
+        this.idle = new ArrayBlockingQueue<>(capacity);
+        this.factory = factory;
+    }
+
+    T acquire() {
+        T instance = idle.poll();
+        return instance != null ? instance : factory.get();
+    }
+
+    void release(T instance) {
+        idle.offer(instance);
+    }
+}
@@ -0,0 +1,263 @@
+package ru.bont777.bridge;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.MessageDigest;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.interfaces.ECPublicKey;
+import java.security.spec.ECGenParameterSpec;
+import java.security.spec.PKCS8EncodedKeySpec;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Набор ключей ES256 (P-256) для подписи JWT с плановой ротацией.
+ * Новый ключ подписывает токены сразу, прежние остаются в наборе для проверки ещё retainMs,
+ * чтобы выданные ими токены дожили до exp. Состояние — неизменяемый снимок за volatile-ссылкой,
+ * JWKS сериализуется один раз при ротации. Ключи хранятся в jwt_keys.json в папке плагина,
+ * поэтому перезапуск не делает выданные токены недействительными.
+ */
+public class JwtKeyRing {
+
+    private static final Base64.Encoder BASE64URL = Base64.getUrlEncoder().withoutPadding();
+
+    private final File keyFile;
+    private final Logger logger;
+    private final long rotationMs;
+    private final long retainMs;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "bridge-jwt-rotation");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private volatile State state;
+
+    /**
+     * @param rotationMs период смены ключа подписи
+     * @param retainMs   сколько прежний ключ остаётся в JWKS после смены (не меньше времени жизни токена)
+     */
+    public JwtKeyRing(File keyFile, Logger logger, long rotationMs, long retainMs) {
+        this.keyFile = keyFile;
+        this.logger = logger;
+        this.rotationMs = rotationMs;
+        this.retainMs = retainMs;
+        List<SigningKey> keys = load();
+        long now = System.currentTimeMillis();
+        keys.removeIf(key -> key.retiredAt(rotationMs, retainMs) <= now);
+        this.state = new State(keys);
+        if (keys.isEmpty() || keys.get(0).createdAtMs + rotationMs <= now) {
+            rotate();
+        }
+    }
+
+    /** Запуск плановой ротации; первая — когда текущему ключу исполнится rotationMs */
+    public void start() {
+        long delay = Math.max(0, state.current().createdAtMs + rotationMs - System.currentTimeMillis());
+        scheduler.scheduleAtFixedRate(this::rotateSafely, delay, rotationMs, TimeUnit.MILLISECONDS);
+    }
+
+    public void stop() {
+        scheduler.shutdownNow();
+    }
+
+    /** Текущий ключ подписи */
+    public SigningKey current() {
+        return state.current();
+    }
+
+    /** Открытый ключ по kid или null, если такого ключа (уже) нет */
+    public PublicKey publicKey(String kid) {
+        SigningKey key = state.byKid.get(kid);
+        return key != null ? key.publicKey : null;
+    }
+
+    /** Готовый ответ /.well-known/jwks.json */
+    public byte[] jwksJson() {
+        return state.jwks;
+    }
+
+    private void rotateSafely() {
+        try {
+            rotate();
+        } catch (RuntimeException e) {
+            logger.severe("Ошибка ротации ключа JWT: " + e);
+        }
+    }
+
+    synchronized void rotate() {
+        long now = System.currentTimeMillis();
+        List<SigningKey> keys = new ArrayList<>();
+        keys.add(SigningKey.generate(now));
+        for (SigningKey key : state.keys) {
+            if (key.retiredAt(rotationMs, retainMs) > now) {
+                keys.add(key);
+            }
+        }
+        state = new State(keys);
+        save(keys);
+        logger.info("Новый ключ подписи JWT: kid=" + keys.get(0).kid + ", ключей в JWKS: " + keys.size());
+    }
+
+    private List<SigningKey> load() {
+        List<SigningKey> keys = new ArrayList<>();
+        if (!keyFile.exists()) {
+            return keys;
+        }
+        try {
+            String json = new String(Files.readAllBytes(keyFile.toPath()), StandardCharsets.UTF_8);
+            for (JsonElement element : JsonParser.parseString(json).getAsJsonArray()) {
+                JsonObject obj = element.getAsJsonObject();
+                keys.add(SigningKey.decode(obj.get("created").getAsLong(),
+                        obj.get("private").getAsString(), obj.get("public").getAsString()));
+            }
+        } catch (Exception e) {
+            logger.warning("Не удалось прочитать " + keyFile.getName() + ", будет создан новый ключ: " + e);
+            keys.clear();
+        }
+        // Самый новый ключ — первый
+        keys.sort((a, b) -> Long.compare(b.createdAtMs, a.createdAtMs));
+        return keys;
+    }
+
+    private void save(List<SigningKey> keys) {
+        JsonArray array = new JsonArray();
+        for (SigningKey key : keys) {
+            JsonObject obj = new JsonObject();
+            obj.addProperty("created", key.createdAtMs);
+            obj.addProperty("private", Base64.getEncoder().encodeToString(key.privateKey.getEncoded()));
+            obj.addProperty("public", Base64.getEncoder().encodeToString(key.publicKey.getEncoded()));
+            array.add(obj);
+        }
+        try {
+            File parent = keyFile.getAbsoluteFile().getParentFile();
+            parent.mkdirs();
+            File tmp = new File(parent, keyFile.getName() + ".tmp");
+            Files.write(tmp.toPath(), array.toString().getBytes(StandardCharsets.UTF_8));
+            try {
+                Files.setPosixFilePermissions(tmp.toPath(), PosixFilePermissions.fromString("rw-------"));
+            } catch (UnsupportedOperationException ignored) {
+                // Не POSIX (Windows) — права оставляем по умолчанию
+            }
+            Files.move(tmp.toPath(), keyFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            logger.warning("Не удалось сохранить " + keyFile.getName() + ": " + e.getMessage());
+        }
+    }
+
+    /** Пара ключей ES256 и её kid (отпечаток JWK по RFC 7638) */
+    public static final class SigningKey {
+        public final String kid;
+        public final PrivateKey privateKey;
+        public final PublicKey publicKey;
+        final long createdAtMs;
+        final String x;
+        final String y;
+
+        private SigningKey(long createdAtMs, PrivateKey privateKey, ECPublicKey publicKey) {
+            this.createdAtMs = createdAtMs;
+            this.privateKey = privateKey;
+            this.publicKey = publicKey;
+            this.x = coordinate(publicKey.getW().getAffineX());
+            this.y = coordinate(publicKey.getW().getAffineY());
+            this.kid = thumbprint(x, y);
+        }
+
+        static SigningKey generate(long now) {
+            try {
+                KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+                generator.initialize(new ECGenParameterSpec("secp256r1"));
+                KeyPair pair = generator.generateKeyPair();
+                return new SigningKey(now, pair.getPrivate(), (ECPublicKey) pair.getPublic());
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException("EC P-256 недоступен", e);
+            }
+        }
+
+        static SigningKey decode(long createdAtMs, String privateBase64, String publicBase64) throws GeneralSecurityException {
+            KeyFactory factory = KeyFactory.getInstance("EC");
+            PrivateKey privateKey = factory.generatePrivate(new PKCS8EncodedKeySpec(Base64.getDecoder().decode(privateBase64)));
+            PublicKey publicKey = factory.generatePublic(new X509EncodedKeySpec(Base64.getDecoder().decode(publicBase64)));
+            return new SigningKey(createdAtMs, privateKey, (ECPublicKey) publicKey);
+        }
+
+        long retiredAt(long rotationMs, long retainMs) {
+            return createdAtMs + rotationMs + retainMs;
+        }
+
+        // Координата P-256 — ровно 32 байта без знакового нуля
+        private static String coordinate(BigInteger value) {
+            byte[] raw = value.toByteArray();
+            byte[] fixed = new byte[32];
+            int length = Math.min(raw.length, 32);
+            System.arraycopy(raw, raw.length - length, fixed, 32 - length, length);
+            return BASE64URL.encodeToString(fixed);
+        }
+
+        private static String thumbprint(String x, String y) {
+            String canonical = "{\"crv\":\"P-256\",\"kty\":\"EC\",\"x\":\"" + x + "\",\"y\":\"" + y + "\"}";
+            try {
+                byte[] digest = MessageDigest.getInstance("SHA-256").digest(canonical.getBytes(StandardCharsets.UTF_8));
+                return BASE64URL.encodeToString(digest);
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+    }
+
+    private static final class State {
+        final List<SigningKey> keys;
+        final Map<String, SigningKey> byKid;
+        final byte[] jwks;
+
+        State(List<SigningKey> keys) {
+            this.keys = Collections.unmodifiableList(new ArrayList<>(keys));
+            Map<String, SigningKey> byKid = new HashMap<>();
+            JsonArray jwkArray = new JsonArray();
+            for (SigningKey key : keys) {
+                byKid.put(key.kid, key);
+                JsonObject jwk = new JsonObject();
+                jwk.addProperty("kty", "EC");
+                jwk.addProperty("crv", "P-256");
+                jwk.addProperty("kid", key.kid);
+                jwk.addProperty("use", "sig");
+                jwk.addProperty("alg", "ES256");
+                jwk.addProperty("x", key.x);
+                jwk.addProperty("y", key.y);
+                jwkArray.add(jwk);
+            }
+            JsonObject jwks = new JsonObject();
+            jwks.add("keys", jwkArray);
+            this.byKid = byKid;
+            this.jwks = jwks.toString().getBytes(StandardCharsets.UTF_8);
+        }
+
+        SigningKey current() {
+            return keys.get(0);
+        }
+    }
+}
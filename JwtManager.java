@@ -3,28 +3,87 @@ package ru.bont777.bridge;
 import io.jsonwebtoken.*;
 import io.jsonwebtoken.io.Decoders;
 import io.jsonwebtoken.security.Keys;
+import io.jsonwebtoken.security.SignatureException;
 
 import javax.crypto.SecretKey;
 import javax.crypto.spec.SecretKeySpec;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
 import java.security.Key;
 import java.util.Base64;
 import java.util.Date;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Logger;
 
+/**
+ * Выпуск и проверка JWT. Подпись — HS256 общим секретом (jwt_algorithm: HS256) или ES256 ключом
+ * из JwtKeyRing с заголовком kid (jwt_algorithm: ES256); открытые ключи публикуются в /.well-known/jwks.json,
+ * и потребители проверяют токены сами. Токены HS256 принимаются и после перехода на ES256, пока jwt_accept_hs256: true.
+ */
 public class JwtManager {
 
+    private static final byte[] EMPTY_JWKS = "{\"keys\":[]}".getBytes(StandardCharsets.UTF_8);
+
     private Key jwtKey;
     private String secretBase64;
     private final Logger logger;
     private final ConfigManager configManager;
+    private final JwtParser parser;
+    private final VerifiedTokenCache tokenCache;
+    private final JwtKeyRing keyRing;
+    private final boolean acceptHs256;
+    private final TokenRevocations revocations;
+    private final Hs256TokenCodec hs256;
 
     // Время жизни токена (например, 1 час)
     private final long validityMs = 3600_000;
 
     public JwtManager(String secretBase64, Logger logger, ConfigManager configManager) {
         this.logger = logger;
+        this.configManager = configManager;
         initializeKey(secretBase64);
-        this.configManager = configManager;    // инициализируем
+        this.hs256 = new Hs256TokenCodec(jwtKey);
+        this.acceptHs256 = configManager.getBoolean("jwt_accept_hs256", true);
+        if ("ES256".equalsIgnoreCase(configManager.getString("jwt_algorithm"))) {
+            long rotationMs = TimeUnit.HOURS.toMillis(Math.max(1, configManager.getInt("jwt_key_rotation_hours", 24)));
+            // Прежний ключ остаётся в JWKS, пока не истекут подписанные им токены
+            long retainMs = Math.max(validityMs, TimeUnit.HOURS.toMillis(configManager.getInt("jwt_key_overlap_hours", 2)));
+            this.keyRing = new JwtKeyRing(new File(configManager.getDataFolder(), "jwt_keys.json"), logger, rotationMs, retainMs);
+            this.keyRing.start();
+        } else {
+            this.keyRing = null;
+        }
+        // Парсер потокобезопасен, создаём один раз; ключ проверки выбирается по alg и kid из заголовка
+        this.parser = Jwts.parserBuilder()
+                .setSigningKeyResolver(new SigningKeyResolverAdapter() {
+                    // В jjwt 0.11 метод объявлен с raw JwsHeader, JwsHeader<?> его не переопределяет
+                    @Override
+                    @SuppressWarnings("rawtypes")
+                    public Key resolveSigningKey(JwsHeader header, Claims claims) {
+                        return verificationKey(header);
+                    }
+                })
+                .build();
+        this.tokenCache = new VerifiedTokenCache(configManager.getInt("jwt_cache_size", 10000));
+        this.revocations = new TokenRevocations(validityMs);
+    }
+
+    private Key verificationKey(JwsHeader<?> header) {
+        String algorithm = header.getAlgorithm();
+        if (SignatureAlgorithm.HS256.getValue().equals(algorithm)) {
+            if (!acceptHs256) {
+                throw new UnsupportedJwtException("Токены HS256 больше не принимаются");
+            }
+            return jwtKey;
+        }
+        if (SignatureAlgorithm.ES256.getValue().equals(algorithm) && keyRing != null) {
+            Key key = header.getKeyId() != null ? keyRing.publicKey(header.getKeyId()) : null;
+            if (key == null) {
+                throw new SignatureException("Неизвестный kid: " + header.getKeyId());
+            }
+            return key;
+        }
+        throw new UnsupportedJwtException("Неподдерживаемый алгоритм подписи: " + algorithm);
     }
 
     private void initializeKey(String secretBase64) {
@@ -34,7 +93,7 @@ public class JwtManager {
                 SecretKey key = Keys.secretKeyFor(SignatureAlgorithm.HS256);
                 this.secretBase64 = Base64.getEncoder().encodeToString(key.getEncoded());
                 this.jwtKey = key;
-                configManager.setValue("jwtSecret", this.jwtKey);
+                updateSecretInConfig(configManager);
                 logger.info("Сгенерирован JWT секрет (Base64): " + this.secretBase64);
             } else {
                 byte[] keyBytes = Decoders.BASE64.decode(secretBase64);
@@ -43,7 +102,7 @@ public class JwtManager {
                     SecretKey key = Keys.secretKeyFor(SignatureAlgorithm.HS256);
                     this.secretBase64 = Base64.getEncoder().encodeToString(key.getEncoded());
                     this.jwtKey = key;
-                    configManager.setValue("jwtSecret", this.jwtKey);
+                    updateSecretInConfig(configManager);
                     logger.info("Сгенерирован JWT секрет (Base64): " + this.secretBase64);
                 } else {
                     this.jwtKey = new SecretKeySpec(keyBytes, "HmacSHA256");
@@ -70,21 +129,99 @@ public class JwtManager {
     /** Генерация JWT токена с subject=username */
     public String generateToken(String username) {
         long now = System.currentTimeMillis();
-        return Jwts.builder()
+        if (keyRing == null) {
+            // Тот же токен, что выпустил бы jjwt, без построения claims и инициализации Mac
+            String token = hs256.encode(username, now, now + validityMs);
+            if (token != null) {
+                return token;
+            }
+        }
+        JwtBuilder builder = Jwts.builder()
                 .setSubject(username)
                 .setIssuedAt(new Date(now))
-                .setExpiration(new Date(now + validityMs))
-                .signWith(jwtKey, SignatureAlgorithm.HS256)
-                .compact();
+                .setExpiration(new Date(now + validityMs));
+        if (keyRing != null) {
+            JwtKeyRing.SigningKey signingKey = keyRing.current();
+            return builder.setHeaderParam(JwsHeader.KEY_ID, signingKey.kid)
+                    .signWith(signingKey.privateKey, SignatureAlgorithm.ES256)
+                    .compact();
+        }
+        return builder.signWith(jwtKey, SignatureAlgorithm.HS256).compact();
+    }
+
+    /** Готовый JWKS (открытые ключи ES256); при HS256 — пустой набор */
+    public byte[] getJwksJson() {
+        return keyRing != null ? keyRing.jwksJson() : EMPTY_JWKS;
     }
 
-    /** Валидация токена, возвращает username */
+    public void shutdown() {
+        if (keyRing != null) {
+            keyRing.stop();
+        }
+    }
+
+    /**
+     * Валидация токена, возвращает username; повторная проверка того же токена берётся из кеша.
+     * Токен, выданный до смены пароля владельца, отклоняется и из кеша.
+     */
     public String validateTokenAndGetUsername(String token) throws JwtException {
-        Jws<Claims> claims = Jwts.parserBuilder()
-                .setSigningKey(jwtKey)
-                .build()
-                .parseClaimsJws(token);
-        return claims.getBody().getSubject();
+        long now = System.currentTimeMillis();
+        VerifiedTokenCache.Entry cached = tokenCache.get(token, now);
+        if (cached != null) {
+            checkNotRevoked(cached.subject, cached.issuedAtMs);
+            return cached.subject;
+        }
+        VerifiedTokenCache.Entry decoded = acceptHs256 ? hs256.decode(token) : null;
+        if (decoded != null && now <= decoded.expiresAtMs) {
+            checkNotRevoked(decoded.subject, decoded.issuedAtMs);
+            tokenCache.put(token, decoded.subject, decoded.issuedAtMs, decoded.expiresAtMs, now);
+            return decoded.subject;
+        }
+        // Токен другой формы, ES256, истёкший или с неверной подписью: решение и текст ошибки — за jjwt
+        Claims claims = parser.parseClaimsJws(token).getBody();
+        long issuedAt = claims.getIssuedAt() != null ? claims.getIssuedAt().getTime() : 0L;
+        checkNotRevoked(claims.getSubject(), issuedAt);
+        // Кешируем только токены с exp и без nbf, чтобы время жизни записи совпадало с токеном
+        if (claims.getExpiration() != null && claims.getNotBefore() == null) {
+            tokenCache.put(token, claims.getSubject(), issuedAt, claims.getExpiration().getTime(), now);
+        }
+        return claims.getSubject();
+    }
+
+    private void checkNotRevoked(String subject, long issuedAtMs) {
+        if (revocations.isRevoked(subject, issuedAtMs)) {
+            throw new JwtException("Токен отозван: пароль " + subject + " изменён после выдачи");
+        }
+    }
+
+    /** Отзыв всех токенов, выданных username до текущего момента (смена пароля) */
+    public void revokeTokens(String username) {
+        revokeTokens(username, System.currentTimeMillis());
+    }
+
+    /** Отзыв токенов, выданных до atMs (событие с другого прокси) */
+    public void revokeTokens(String username, long atMs) {
+        revocations.revoke(username, atMs);
+    }
+
+    public long getRevokedRejections() {
+        return revocations.getRejected();
+    }
+
+    public int getRevocationCount() {
+        return revocations.size();
+    }
+
+    public long getCacheHits() {
+        return tokenCache.getHits();
+    }
+
+    public long getCacheMisses() {
+        return tokenCache.getMisses();
+    }
+
+    public int getCacheSize() {
+        return tokenCache.size();
     }
 
     /** Проверка валидности токена */
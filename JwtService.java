@@ -1,5 +1,6 @@
 package ru.bont777.bridge;
 
+import io.jsonwebtoken.JwtParser;
 import io.jsonwebtoken.Jwts;
 import io.jsonwebtoken.SignatureAlgorithm;
 import java.security.Key;
@@ -8,24 +9,35 @@ import java.util.Date;
 public class JwtService {
     private final Key key;
     private final long expirationMs = 24 * 60 * 60 * 1000; // 1 день
+    private final Hs256TokenCodec codec;
+    private final JwtParser parser;
 
     public JwtService(Key key) {
         this.key = key;
+        this.codec = new Hs256TokenCodec(key);
+        this.parser = Jwts.parserBuilder().setSigningKey(key).build();
     }
 
     public String generateToken(String username) {
+        long now = System.currentTimeMillis();
+        String token = codec.encode(username, now, now + expirationMs);
+        if (token != null) {
+            return token;
+        }
         return Jwts.builder()
             .setSubject(username)
-            .setIssuedAt(new Date())
-            .setExpiration(new Date(System.currentTimeMillis() + expirationMs))
+            .setIssuedAt(new Date(now))
+            .setExpiration(new Date(now + expirationMs))
             .signWith(key, SignatureAlgorithm.HS256)
             .compact();
     }
 
     public String validateTokenAndGetUsername(String token) {
-        return Jwts.parserBuilder()
-            .setSigningKey(key)
-            .build()
+        VerifiedTokenCache.Entry decoded = codec.decode(token);
+        if (decoded != null && System.currentTimeMillis() <= decoded.expiresAtMs) {
+            return decoded.subject;
+        }
+        return parser
             .parseClaimsJws(token)
             .getBody()
             .getSubject();
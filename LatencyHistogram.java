@@ -0,0 +1,66 @@
+package ru.bont777.bridge;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Гистограмма задержек с фиксированными границами корзин.
+ * record() не выделяет память: поиск корзины и атомарный инкремент.
+ */
+public class LatencyHistogram {
+
+    // Верхние границы корзин в микросекундах: от 50 мкс до 10 с
+    private static final long[] BOUNDS_MICROS = {
+            50, 100, 250, 500,
+            1_000, 2_500, 5_000, 10_000, 25_000, 50_000, 100_000, 250_000, 500_000,
+            1_000_000, 2_500_000, 5_000_000, 10_000_000
+    };
+
+    private final long[] boundsNanos = new long[BOUNDS_MICROS.length];
+    private final String[] labels = new String[BOUNDS_MICROS.length];
+    // Последняя ячейка — +Inf
+    private final AtomicLongArray buckets = new AtomicLongArray(BOUNDS_MICROS.length + 1);
+    private final LongAdder sumNanos = new LongAdder();
+
+    public LatencyHistogram() {
+        for (int i = 0; i < BOUNDS_MICROS.length; i++) {
+            boundsNanos[i] = BOUNDS_MICROS[i] * 1_000L;
+            labels[i] = Double.toString(BOUNDS_MICROS[i] / 1_000_000.0);
+        }
+    }
+
+    public void record(long nanos) {
+        int i = 0;
+        while (i < boundsNanos.length && nanos > boundsNanos[i]) {
+            i++;
+        }
+        buckets.incrementAndGet(i);
+        sumNanos.add(nanos);
+    }
+
+    /** Запись времени, прошедшего с момента startNanos (System.nanoTime()) */
+    public void recordSince(long startNanos) {
+        record(System.nanoTime() - startNanos);
+    }
+
+    public long getCount() {
+        long count = 0;
+        for (int i = 0; i < buckets.length(); i++) {
+            count += buckets.get(i);
+        }
+        return count;
+    }
+
+    /** Вывод в текстовом формате Prometheus (кумулятивные корзины, секунды) */
+    void writePrometheus(StringBuilder out, String name) {
+        long cumulative = 0;
+        for (int i = 0; i < labels.length; i++) {
+            cumulative += buckets.get(i);
+            out.append(name).append("_bucket{le=\"").append(labels[i]).append("\"} ").append(cumulative).append('\n');
+        }
+        cumulative += buckets.get(labels.length);
+        out.append(name).append("_bucket{le=\"+Inf\"} ").append(cumulative).append('\n');
+        out.append(name).append("_sum ").append(sumNanos.sum() / 1_000_000_000.0).append('\n');
+        out.append(name).append("_count ").append(cumulative).append('\n');
+    }
+}
@@ -0,0 +1,72 @@
+package ru.bont777.bridge;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleSupplier;
+
+/**
+ * Метрики плагина для эндпоинта /metrics (текстовый формат Prometheus).
+ * Счётчики и гистограммы создаются один раз при инициализации компонентов;
+ * на горячем пути выполняется только их обновление.
+ */
+public class MetricsRegistry {
+
+    public static final String PREFIX = "baroness_bridge_";
+
+    private final Map<String, Metric<LongAdder>> counters = new ConcurrentSkipListMap<>();
+    private final Map<String, Metric<DoubleSupplier>> samplers = new ConcurrentSkipListMap<>();
+    private final Map<String, Metric<LatencyHistogram>> histograms = new ConcurrentSkipListMap<>();
+
+    public LongAdder counter(String name, String help) {
+        return counters.computeIfAbsent(PREFIX + name, key -> new Metric<>(help, "counter", new LongAdder())).value;
+    }
+
+    public LatencyHistogram histogram(String name, String help) {
+        return histograms.computeIfAbsent(PREFIX + name, key -> new Metric<>(help, "histogram", new LatencyHistogram())).value;
+    }
+
+    /** Регистрация (или замена, например после пересоздания пула) значения, читаемого при сборе метрик */
+    public void gauge(String name, String help, DoubleSupplier supplier) {
+        samplers.put(PREFIX + name, new Metric<>(help, "gauge", supplier));
+    }
+
+    /** Счётчик, который ведёт сам компонент (например, попадания в кеш) */
+    public void counterOf(String name, String help, DoubleSupplier supplier) {
+        samplers.put(PREFIX + name, new Metric<>(help, "counter", supplier));
+    }
+
+    public String scrape() {
+        StringBuilder out = new StringBuilder(8192);
+        counters.forEach((name, metric) -> {
+            header(out, name, metric);
+            out.append(name).append(' ').append(metric.value.sum()).append('\n');
+        });
+        samplers.forEach((name, metric) -> {
+            header(out, name, metric);
+            out.append(name).append(' ').append(metric.value.getAsDouble()).append('\n');
+        });
+        histograms.forEach((name, metric) -> {
+            header(out, name, metric);
+            metric.value.writePrometheus(out, name);
+        });
+        return out.toString();
+    }
+
+    private static void header(StringBuilder out, String name, Metric<?> metric) {
+        out.append("# HELP ").append(name).append(' ').append(metric.help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(metric.type).append('\n');
+    }
+
+    private static final class Metric<T> {
+        final String help;
+        final String type;
+        final T value;
+
+        Metric(String help, String type, T value) {
+            this.help = help;
+            this.type = type;
+            this.value = value;
+        }
+    }
+}
@@ -6,77 +6,234 @@ import net.md_5.bungee.api.connection.ProxiedPlayer;
 import net.md_5.bungee.api.plugin.Listener;
 import net.md_5.bungee.event.EventHandler;
 
-import javax.sql.DataSource;
+import java.io.IOException;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
-import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class PasswordListener implements Listener {
 
-    private final BaronessLaravelBridge plugin;
+    private final BridgeContext plugin;
     private final ConfigManager configManager;
-    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final JwtManager jwtManager;
+    private final ExecutorService executor;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "bridge-session-purge");
+        thread.setDaemon(true);
+        return thread;
+    });
 
-    public PasswordListener(BaronessLaravelBridge plugin, ConfigManager configManager) {
+    // События за окно собираются по имени: повторная смена пароля того же игрока не даёт второго запроса.
+    // Значение — номер записи в журнале (0 без журнала)
+    private final Map<String, Long> pending = new ConcurrentHashMap<>();
+    // Журнал ожидающих сбросов; null, если выключен или не открылся
+    private final PurgeJournal journal;
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+    // Настройки заменяются целиком при перезагрузке config.yml
+    private volatile Settings settings;
+    private final LatencyHistogram purgeTime;
+
+    public PasswordListener(BridgeContext plugin, ConfigManager configManager, JwtManager jwtManager, ThreadMode threadMode) {
         this.plugin = plugin;
         this.configManager = configManager;
+        this.jwtManager = jwtManager;
+        this.executor = threadMode.newTaskExecutor();
+        this.settings = new Settings(configManager.snapshot());
+        configManager.addListener((previous, next) -> settings = new Settings(next));
+
+        MetricsRegistry metrics = plugin.getMetrics();
+        this.purgeTime = metrics.histogram("session_purge_seconds", "Пакетный сброс сессий (поиск id + DELETE)");
+        metrics.gauge("session_purge_pending", "Игроков в очереди сброса сессий", pending::size);
+
+        this.journal = openJournal(configManager.snapshot());
+        if (journal != null) {
+            metrics.gauge("session_journal_open", "Незавершённых записей в журнале сброса сессий", journal::size);
+            Map<Long, String> unfinished = journal.openEntries();
+            if (!unfinished.isEmpty()) {
+                plugin.getLogger().info("Повтор незавершённых сбросов сессий из журнала: " + unfinished.size());
+                unfinished.forEach((seq, playerName) -> schedule(playerName, seq));
+            }
+            journal.start();
+        }
+    }
+
+    private PurgeJournal openJournal(ConfigSnapshot config) {
+        if (!config.getBoolean("session_journal_enabled", true)) {
+            return null;
+        }
+        try {
+            return new PurgeJournal(configManager.getDataFolder(), plugin.getLogger(),
+                    config.getInt("session_journal_size_kb", 256) * 1024,
+                    config.getInt("session_journal_sync_ms", 100));
+        } catch (IOException | RuntimeException e) {
+            plugin.getLogger().severe("Не удалось открыть журнал сброса сессий, сбросы не переживут перезапуск: " + e);
+            return null;
+        }
     }
 
     @EventHandler
     public void onAuthChangePassword(AuthChangePasswordEvent event) {
-        String playerName = event.getTargetPlayerName();
-        plugin.logDebug("Запуск задачи сброса сессий для: " + playerName);
+        // Выданные JWT отзываются сразу (и на других прокси), сессии Laravel — пакетом в окне сброса
+        long now = System.currentTimeMillis();
+        jwtManager.revokeTokens(event.getTargetPlayerName(), now);
+        plugin.getReplication().publishRevocation(event.getTargetPlayerName(), now);
+        enqueue(event.getTargetPlayerName());
+    }
 
-        executor.submit(() -> handlePasswordChange(playerName));
+    /**
+     * Постановка игрока в очередь сброса сессий; сброс выполняется пакетом раз в session_purge_window_ms.
+     * Событие попадает в журнал до возврата из метода.
+     */
+    public void enqueue(String playerName) {
+        plugin.logDebug("Запуск задачи сброса сессий для: {}", playerName);
+        schedule(playerName, journal != null ? journal.append(playerName) : 0L);
     }
 
-    private void handlePasswordChange(String playerName) {
-        DataSource ds = plugin.getDataSource();
-
-        String tableUsers = configManager.getString("table_users");
-        String tableSessions = configManager.getString("table_sessions");
-        String colUserId = configManager.getString("column_user_id");
-        String colUsername = configManager.getString("column_username");
-        String colSessionUserId = configManager.getString("column_session_user_id");
-        String message = configManager.getString("message_to_player");
-
-        try (Connection connection = ds.getConnection()) {
-            String findUserSql = "SELECT " + colUserId + " FROM " + tableUsers + " WHERE " + colUsername + " = ?";
-            try (PreparedStatement pst = connection.prepareStatement(findUserSql)) {
-                pst.setString(1, playerName);
-                try (ResultSet rs = pst.executeQuery()) {
-                    if (rs.next()) {
-                        int userId = rs.getInt(colUserId);
-                        int removed = deleteUserSessions(connection, tableSessions, colSessionUserId, userId);
-                        plugin.logDebug("Сброшено сессий для игрока " + playerName + ": " + removed);
-                    } else {
-                        plugin.getLogger().warning("Игрок " + playerName + " не найден в таблице " + tableUsers);
-                    }
+    private void schedule(String playerName, long seq) {
+        Long superseded = pending.put(playerName, seq);
+        if (superseded != null && journal != null) {
+            // Игрок уже ждал сброса: новая запись журнала покрывает прежнюю
+            journal.markDone(superseded);
+        }
+        if (flushScheduled.compareAndSet(false, true)) {
+            scheduler.schedule(() -> executor.submit(this::flush), settings.windowMs, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void flush() {
+        // Сбрасываем флаг до выборки: события, пришедшие во время сброса, запланируют следующее окно
+        flushScheduled.set(false);
+        List<String> batch = new ArrayList<>();
+        List<Long> seqs = new ArrayList<>();
+        int batchSize = settings.batchSize;
+        for (Map.Entry<String, Long> entry : pending.entrySet()) {
+            // Запись снимается, только если schedule() не заменил её после чтения: новое событие
+            // остаётся в pending, его окно уже запланировано
+            if (pending.remove(entry.getKey(), entry.getValue())) {
+                batch.add(entry.getKey());
+                seqs.add(entry.getValue());
+            }
+        }
+        for (int from = 0; from < batch.size(); from += batchSize) {
+            int to = Math.min(batch.size(), from + batchSize);
+            List<String> chunk = batch.subList(from, to);
+            Semaphore permits = plugin.getDatabaseManager().getConnectionPermits();
+            try {
+                permits.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            boolean purged;
+            try {
+                purged = purgeSessions(chunk);
+            } finally {
+                permits.release();
+            }
+            // При ошибке базы записи остаются в журнале и повторятся при следующем запуске
+            if (purged && journal != null) {
+                seqs.subList(from, to).forEach(journal::markDone);
+            }
+        }
+    }
+
+    /** @return false — ошибка базы, сессии не сброшены */
+    private boolean purgeSessions(List<String> playerNames) {
+        DatabaseManager database = plugin.getDatabaseManager();
+        Settings settings = this.settings;
+        long start = System.nanoTime();
+
+        try {
+            // Поиск id идёт через пул чтения (если настроен), чтобы не ждать за DELETE в основном пуле
+            Map<String, Integer> userIds = plugin.getUserIdCache().resolve(database.getReadDataSource(), playerNames);
+            for (String playerName : playerNames) {
+                if (!userIds.containsKey(playerName)) {
+                    plugin.getLogger().warning("Игрок " + playerName + " не найден в таблице " + settings.tableUsers);
                 }
             }
+            if (userIds.isEmpty()) {
+                return true;
+            }
+            int removed;
+            try (Connection connection = plugin.getDataSource().getConnection()) {
+                removed = deleteUserSessions(connection, settings, new ArrayList<>(userIds.values()));
+            }
+            purgeTime.recordSince(start);
+            plugin.logDebug("Сброшено сессий для игроков {}: {}", userIds.keySet(), removed);
+            return true;
         } catch (SQLException e) {
-            plugin.getLogger().severe("Ошибка при сбросе сессий для " + playerName + ": " + e.getMessage());
-            ProxiedPlayer player = ProxyServer.getInstance().getPlayer(playerName);
-            if (player != null && player.isConnected()) {
-                String coloredMessage = message.replace("&", "§");
-                player.sendMessage(coloredMessage);
+            for (String playerName : playerNames) {
+                plugin.getLogger().severe("Ошибка при сбросе сессий для " + playerName + ": " + e.getMessage());
+                ProxyServer proxy = ProxyServer.getInstance();
+                ProxiedPlayer player = proxy != null ? proxy.getPlayer(playerName) : null;
+                if (player != null && player.isConnected()) {
+                    String coloredMessage = settings.message.replace("&", "§");
+                    player.sendMessage(coloredMessage);
+                }
             }
+            return false;
         }
     }
 
-    private int deleteUserSessions(Connection conn, String table, String column, int userId) throws SQLException {
-        String deleteSql = "DELETE FROM " + table + " WHERE " + column + " = ?";
-        try (PreparedStatement del = conn.prepareStatement(deleteSql)) {
-            del.setInt(1, userId);
+    private int deleteUserSessions(Connection conn, Settings settings, List<Integer> userIds) throws SQLException {
+        try (PreparedStatement del = conn.prepareStatement(settings.deleteSessionsSqlPrefix + placeholders(userIds.size()))) {
+            for (int i = 0; i < userIds.size(); i++) {
+                del.setInt(i + 1, userIds.get(i));
+            }
             return del.executeUpdate();
         }
     }
 
+    private static String placeholders(int count) {
+        return "(" + String.join(", ", Collections.nCopies(count, "?")) + ")";
+    }
+
+    /** Остановка: идущий сброс дорабатывает, ожидающие остаются в журнале до следующего запуска */
     public void shutdown() {
+        scheduler.shutdownNow();
         executor.shutdown();
+        try {
+            if (!executor.awaitTermination(5, TimeUnit.SECONDS)) {
+                plugin.getLogger().warning("Сброс сессий не завершился за 5 секунд");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (journal != null) {
+            journal.close();
+            if (journal.size() > 0) {
+                plugin.getLogger().info("Незавершённых сбросов сессий в журнале: " + journal.size() + ", будут повторены при запуске");
+            }
+        }
         plugin.getLogger().info("Остановлен пул потоков PasswordListener");
     }
+
+    private static final class Settings {
+        final long windowMs;
+        final int batchSize;
+        final String tableUsers;
+        final String deleteSessionsSqlPrefix;
+        final String message;
+
+        Settings(ConfigSnapshot config) {
+            this.windowMs = config.getInt("session_purge_window_ms", 200);
+            this.batchSize = Math.max(1, config.getInt("session_purge_batch_size", 500));
+            // SQL собирается один раз, а не на каждое событие
+            this.tableUsers = config.getString("table_users");
+            this.deleteSessionsSqlPrefix = "DELETE FROM " + config.getString("table_sessions")
+                    + " WHERE " + config.getString("column_session_user_id") + " IN ";
+            this.message = config.getString("message_to_player");
+        }
+    }
 }
@@ -0,0 +1,132 @@
+package ru.bont777.bridge;
+
+import com.zaxxer.hikari.HikariConfigMXBean;
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.HikariPoolMXBean;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Подстройка размера основного пула HikariCP под нагрузку.
+ * Раз в секунду снимается пиковое число занятых соединений и ожидающих потоков; раз в интервал:
+ * есть ожидающие или среднее ожидание соединения выше порога — пул растёт на четверть,
+ * пиковая загрузка ниже половины — уменьшается на одно соединение (вместе с minimumIdle,
+ * чтобы лишние свободные соединения закрылись по idleTimeout).
+ */
+public class PoolSizeController {
+
+    private final BridgeContext plugin;
+    private final Supplier<HikariDataSource> pool;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "bridge-pool-controller");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // Заполняется трекером метрик пула на каждом получении соединения
+    private final LongAdder waitNanos = new LongAdder();
+    private final LongAdder waitCount = new LongAdder();
+
+    private volatile Limits limits;
+
+    // Состояние текущего интервала, меняется только потоком контроллера
+    private int ticks;
+    private int peakActive;
+    private int peakPending;
+
+    public PoolSizeController(BridgeContext plugin, Supplier<HikariDataSource> pool, Limits limits) {
+        this.plugin = plugin;
+        this.pool = pool;
+        this.limits = limits;
+    }
+
+    public void start() {
+        scheduler.scheduleWithFixedDelay(this::tick, 1, 1, TimeUnit.SECONDS);
+    }
+
+    public void stop() {
+        scheduler.shutdownNow();
+    }
+
+    public void configure(Limits limits) {
+        this.limits = limits;
+    }
+
+    /** Время получения соединения из основного пула */
+    void recordAcquire(long nanos) {
+        waitNanos.add(nanos);
+        waitCount.increment();
+    }
+
+    private void tick() {
+        try {
+            HikariDataSource ds = pool.get();
+            HikariPoolMXBean stats = ds != null && !ds.isClosed() ? ds.getHikariPoolMXBean() : null;
+            if (stats == null) {
+                return;
+            }
+            peakActive = Math.max(peakActive, stats.getActiveConnections());
+            peakPending = Math.max(peakPending, stats.getThreadsAwaitingConnection());
+            Limits limits = this.limits;
+            if (++ticks < limits.intervalSeconds) {
+                return;
+            }
+            long count = waitCount.sumThenReset();
+            long nanos = waitNanos.sumThenReset();
+            long avgWaitNanos = count == 0 ? 0 : nanos / count;
+            resize(ds.getHikariConfigMXBean(), limits, avgWaitNanos);
+            ticks = 0;
+            peakActive = 0;
+            peakPending = 0;
+        } catch (RuntimeException e) {
+            plugin.getLogger().warning("Ошибка подстройки пула соединений: " + e);
+        }
+    }
+
+    private void resize(HikariConfigMXBean config, Limits limits, long avgWaitNanos) {
+        int current = config.getMaximumPoolSize();
+        int target = current;
+        if (peakPending > 0 || avgWaitNanos > limits.waitThresholdNanos) {
+            target = current + Math.max(1, current / 4);
+        } else if (peakActive < current / 2) {
+            target = current - 1;
+        }
+        target = Math.max(limits.minSize, Math.min(limits.maxSize, target));
+        if (target == current) {
+            return;
+        }
+        // При уменьшении сначала minimumIdle, при росте сначала maximumPoolSize: minimumIdle не превышает максимум
+        int minIdle = Math.min(limits.minIdle, target);
+        if (target < current) {
+            config.setMinimumIdle(minIdle);
+            config.setMaximumPoolSize(target);
+        } else {
+            config.setMaximumPoolSize(target);
+            config.setMinimumIdle(minIdle);
+        }
+        plugin.logDebug("Размер пула соединений: " + current + " → " + target
+                + " (пик занятых " + peakActive + ", ожидающих " + peakPending
+                + ", среднее ожидание " + avgWaitNanos / 1000 + " мкс)");
+    }
+
+    /** Границы подстройки (db_pool_adaptive_min_size..db_pool_max_size) */
+    public static final class Limits {
+        final int minSize;
+        final int maxSize;
+        final int minIdle;
+        final long waitThresholdNanos;
+        final int intervalSeconds;
+
+        public Limits(int minSize, int maxSize, int minIdle, long waitThresholdMs, int intervalSeconds) {
+            this.maxSize = Math.max(1, maxSize);
+            this.minSize = Math.max(1, Math.min(minSize, this.maxSize));
+            this.minIdle = Math.max(0, minIdle);
+            this.waitThresholdNanos = TimeUnit.MILLISECONDS.toNanos(waitThresholdMs);
+            this.intervalSeconds = Math.max(1, intervalSeconds);
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package ru.bont777.bridge;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Locale;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Индекс существования профилей BaronessAuth для выбора между регистрацией и входом: фильтр Блума имён.
+ * При запуске фильтр заполняется всеми именами из table_profiles (SQL, как в ProfileSync), затем пополняется
+ * профилями, созданными мостом здесь и на других прокси (репликация), и профилями, найденными поиском.
+ * <p>
+ * После загрузки промах фильтра означает, что имени нет: поиск пропускается и сразу начинается регистрация.
+ * Транзакция создания всё равно перепроверяет имя, поэтому профиль, созданный в обход моста после загрузки
+ * (регистрация в игре), приводит к проверке пароля, а не к дублю. Пока фильтр не загружен (или загрузка
+ * не удалась), поиск не пропускается. Для существующих имён поиск нужен всегда: хеш пароля читается в транзакции.
+ */
+public class ProfileIndex {
+
+    private static final int HASHES = 4;
+    private static final int LOAD_PAGE_SIZE = 10_000;
+
+    private final AtomicLongArray bloom;
+    private final int bloomMask;
+    private volatile boolean loaded;
+    private final LongAdder loadedNames = new LongAdder();
+    private final LongAdder skippedLookups = new LongAdder();
+
+    /** @param bloomBits размер фильтра Блума в битах, округляется вверх до степени двойки */
+    public ProfileIndex(int bloomBits) {
+        int bits = Math.max(1 << 10, bloomBits);
+        bits = Integer.bitCount(bits) == 1 ? bits : Integer.highestOneBit(bits) << 1;
+        this.bloom = new AtomicLongArray(bits >>> 6);
+        this.bloomMask = bits - 1;
+    }
+
+    /** Загрузка имён из table_profiles в фоновом потоке; без пула соединений (бенчмарки) индекс не загружается */
+    public void startLoading(BridgeContext plugin) {
+        DatabaseManager database = plugin.getDatabaseManager();
+        if (database == null) {
+            return;
+        }
+        Thread thread = new Thread(() -> {
+            long start = System.nanoTime();
+            try {
+                load(database, plugin.getConfigManager().snapshot());
+                loaded = true;
+                plugin.getLogger().info("Индекс профилей загружен: " + loadedNames.sum() + " имён за "
+                        + (System.nanoTime() - start) / 1_000_000 + " мс");
+            } catch (SQLException e) {
+                plugin.getLogger().warning("Не удалось загрузить индекс профилей, поиск профиля не пропускается: " + e.getMessage());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, "bridge-profile-index");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    // Страницы по имени без OFFSET: соединение занято только на время одной страницы
+    private void load(DatabaseManager database, ConfigSnapshot config) throws SQLException, InterruptedException {
+        String name = config.getString("column_profile_name");
+        String sql = "SELECT " + name + " FROM " + config.getString("table_profiles")
+                + " WHERE " + name + " > ? ORDER BY " + name + " LIMIT " + LOAD_PAGE_SIZE;
+        Semaphore permits = database.getConnectionPermits();
+        String after = "";
+        int pageSize;
+        do {
+            pageSize = 0;
+            permits.acquire();
+            try {
+                DataSource dataSource = database.getReadDataSource();
+                if (dataSource == null) {
+                    throw new SQLException("DataSource не инициализирован.");
+                }
+                try (Connection connection = dataSource.getConnection();
+                     PreparedStatement select = connection.prepareStatement(sql)) {
+                    select.setString(1, after);
+                    try (ResultSet rs = select.executeQuery()) {
+                        while (rs.next()) {
+                            String profileName = rs.getString(1);
+                            pageSize++;
+                            if (profileName != null) {
+                                after = profileName;
+                                markPresent(profileName);
+                            }
+                        }
+                    }
+                }
+            } finally {
+                permits.release();
+            }
+            loadedNames.add(pageSize);
+        } while (pageSize == LOAD_PAGE_SIZE);
+    }
+
+    /** Профиль найден, создан или загружен из базы */
+    public void markPresent(String name) {
+        String key = key(name);
+        long h1 = hash(key, 0x9E3779B97F4A7C15L);
+        long h2 = hash(key, 0xC2B2AE3D27D4EB4FL) | 1;
+        for (int i = 0; i < HASHES; i++) {
+            int bit = (int) (h1 + i * h2) & bloomMask;
+            long mask = 1L << bit;
+            int word = bit >>> 6;
+            long value;
+            while (((value = bloom.get(word)) & mask) == 0 && !bloom.compareAndSet(word, value, value | mask)) {
+                // повтор CAS
+            }
+        }
+    }
+
+    /** Можно ли пропустить поиск и сразу регистрировать: индекс загружен и фильтр не знает имени */
+    public boolean isSurelyAbsent(String name) {
+        if (!loaded || mightExist(key(name))) {
+            return false;
+        }
+        skippedLookups.increment();
+        return true;
+    }
+
+    private boolean mightExist(String key) {
+        long h1 = hash(key, 0x9E3779B97F4A7C15L);
+        long h2 = hash(key, 0xC2B2AE3D27D4EB4FL) | 1;
+        for (int i = 0; i < HASHES; i++) {
+            int bit = (int) (h1 + i * h2) & bloomMask;
+            if ((bloom.get(bit >>> 6) & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public boolean isLoaded() {
+        return loaded;
+    }
+
+    public long getLoadedNames() {
+        return loadedNames.sum();
+    }
+
+    public long getSkippedLookups() {
+        return skippedLookups.sum();
+    }
+
+    private static String key(String name) {
+        return name.toLowerCase(Locale.ROOT);
+    }
+
+    private static long hash(String key, long seed) {
+        long h = seed;
+        for (int i = 0; i < key.length(); i++) {
+            h = (h ^ key.charAt(i)) * 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        return h;
+    }
+}
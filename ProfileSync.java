@@ -0,0 +1,195 @@
+package ru.bont777.bridge;
+
+import com.google.gson.annotations.SerializedName;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Выгрузка профилей BaronessAuth для синхронизации таблицы users в Laravel: профили, изменённые после курсора,
+ * в порядке (время изменения, имя). Курсор — время и имя последнего полученного профиля, поэтому
+ * страницы выбираются по индексу без OFFSET, а прерванную выгрузку можно продолжить с последней записи.
+ * <p>
+ * В памяти только одна страница: следующая запрашивается, когда предыдущая записана в ответ.
+ * Соединение из пула чтения берётся на время одного запроса страницы под тем же разрешением
+ * db_max_concurrency, что и сброс сессий; одновременных выгрузок не больше profile_sync_max_concurrent,
+ * поэтому большая синхронизация не занимает соединения, нужные остальным запросам.
+ */
+public class ProfileSync {
+
+    private static final String[] QUERY_KEYS = {
+            "table_profiles", "column_profile_name", "column_profile_premium", "column_profile_changed_at"
+    };
+
+    private final BridgeContext plugin;
+    private final Semaphore running;
+    private final LongAdder streamed;
+    private final LatencyHistogram pageTime;
+    // Настройки заменяются целиком при перезагрузке config.yml
+    private volatile Settings settings;
+
+    public ProfileSync(BridgeContext plugin) {
+        this.plugin = plugin;
+        ConfigManager config = plugin.getConfigManager();
+        this.settings = new Settings(config.snapshot());
+        config.addListener((previous, next) -> {
+            if (!previous.sameValues(next, QUERY_KEYS) || previous.getInt("profile_sync_page_size", 1000) != next.getInt("profile_sync_page_size", 1000)) {
+                settings = new Settings(next);
+            }
+        });
+        int maxConcurrent = Math.max(1, config.getInt("profile_sync_max_concurrent", 1));
+        this.running = new Semaphore(maxConcurrent);
+        MetricsRegistry metrics = plugin.getMetrics();
+        this.streamed = metrics.counter("profile_sync_rows_total", "Профилей, выгруженных через /api/profiles/sync");
+        this.pageTime = metrics.histogram("profile_sync_page_seconds", "Запрос одной страницы выгрузки профилей");
+        metrics.gauge("profile_sync_running", "Выполняющихся выгрузок профилей", () -> maxConcurrent - running.availablePermits());
+    }
+
+    /** Разрешение на выгрузку; false — уже выполняется profile_sync_max_concurrent выгрузок */
+    public boolean tryBegin() {
+        return running.tryAcquire();
+    }
+
+    public void end() {
+        running.release();
+    }
+
+    /**
+     * Профили, изменённые после курсора (changedAfterMs, afterName); afterName пустое — все с временем
+     * не раньше changedAfterMs. Первая страница читается сразу, чтобы ошибка базы стала ответом 500,
+     * а не оборванным массивом; остальные — по мере чтения потока.
+     */
+    public Stream<Profile> changedSince(long changedAfterMs, String afterName) throws SQLException {
+        Pages pages = new Pages(settings, new Timestamp(changedAfterMs), afterName);
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(pages, Spliterator.ORDERED | Spliterator.NONNULL), false);
+    }
+
+    private List<Profile> fetch(Settings settings, Timestamp after, String afterName) throws SQLException {
+        DatabaseManager database = plugin.getDatabaseManager();
+        Semaphore permits = database.getConnectionPermits();
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Выгрузка профилей прервана", e);
+        }
+        long start = System.nanoTime();
+        try {
+            DataSource dataSource = database.getReadDataSource();
+            if (dataSource == null) {
+                throw new SQLException("DataSource не инициализирован.");
+            }
+            List<Profile> page = new ArrayList<>(settings.pageSize);
+            try (Connection connection = dataSource.getConnection();
+                 PreparedStatement select = connection.prepareStatement(settings.selectSql)) {
+                select.setTimestamp(1, after);
+                select.setTimestamp(2, after);
+                select.setString(3, afterName);
+                select.setInt(4, settings.pageSize);
+                try (ResultSet rs = select.executeQuery()) {
+                    while (rs.next()) {
+                        // NULL в колонке времени не проходит условие по курсору, в выборку не попадает
+                        page.add(new Profile(rs.getString(1), rs.getBoolean(2), rs.getTimestamp(3)));
+                    }
+                }
+            }
+            pageTime.recordSince(start);
+            return page;
+        } finally {
+            permits.release();
+        }
+    }
+
+    /** Профиль в ответе /api/profiles/sync */
+    public static final class Profile {
+        final String name;
+        final boolean premium;
+        @SerializedName("changed_at")
+        final long changedAtMs;
+        // Курсор следующей страницы с полной точностью колонки (DATETIME(6) точнее миллисекунд); в ответ не пишется
+        final transient Timestamp changedAt;
+
+        Profile(String name, boolean premium, Timestamp changedAt) {
+            this.name = name;
+            this.premium = premium;
+            this.changedAtMs = changedAt.getTime();
+            this.changedAt = changedAt;
+        }
+    }
+
+    /** Страницы по курсору; следующая запрашивается, когда текущая прочитана */
+    private final class Pages implements Iterator<Profile> {
+        private final Settings settings;
+        private List<Profile> page;
+        private int index;
+        private boolean last;
+
+        Pages(Settings settings, Timestamp after, String afterName) throws SQLException {
+            this.settings = settings;
+            load(after, afterName);
+        }
+
+        private void load(Timestamp after, String afterName) throws SQLException {
+            page = fetch(settings, after, afterName);
+            index = 0;
+            // Неполная страница — последняя, лишний запрос не нужен
+            last = page.size() < settings.pageSize;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (index < page.size()) {
+                return true;
+            }
+            if (last) {
+                return false;
+            }
+            Profile cursor = page.get(page.size() - 1);
+            try {
+                load(cursor.changedAt, cursor.name);
+            } catch (SQLException e) {
+                throw new IllegalStateException("Ошибка чтения страницы профилей после " + cursor.name, e);
+            }
+            return index < page.size();
+        }
+
+        @Override
+        public Profile next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            streamed.increment();
+            return page.get(index++);
+        }
+    }
+
+    private static final class Settings {
+        final int pageSize;
+        final String selectSql;
+
+        Settings(ConfigSnapshot config) {
+            this.pageSize = Math.max(1, config.getInt("profile_sync_page_size", 1000));
+            String name = config.getString("column_profile_name");
+            String changedAt = config.getString("column_profile_changed_at");
+            // Условие по курсору в виде OR, а не (a, b) > (?, ?): так MySQL использует индекс (changed_at, name)
+            this.selectSql = "SELECT " + name + ", " + config.getString("column_profile_premium") + ", " + changedAt
+                    + " FROM " + config.getString("table_profiles")
+                    + " WHERE " + changedAt + " > ? OR (" + changedAt + " = ? AND " + name + " > ?)"
+                    + " ORDER BY " + changedAt + ", " + name + " LIMIT ?";
+        }
+    }
+}
@@ -0,0 +1,281 @@
+package ru.bont777.bridge;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * Журнал ожидающих сбросов сессий в папке плагина: событие смены пароля записывается до того,
+ * как слушатель вернёт управление, отметка о выполнении — после DELETE. При запуске незавершённые
+ * записи возвращаются в очередь сброса.
+ * <p>
+ * Журнал — два файла session_journal.0/.1, отображённых в память. Записи дописываются в активный файл:
+ * после записи в отображение данные переживают падение процесса, а force() для сохранности при сбое ОС
+ * выполняется отдельным потоком раз в syncIntervalMs (групповой fsync для всех записей за интервал).
+ * Каждая запись защищена CRC32, оборванная запись при чтении отбрасывается вместе с хвостом.
+ * <p>
+ * Когда активный файл заполнен наполовину, открытые записи переписываются во второй файл с поколением
+ * на единицу больше; поколение пишется в заголовок последним, после force() записей, поэтому сбой во время
+ * сжатия оставляет действующим прежний файл. Файлы не переименовываются и не удаляются, что работает
+ * и на Windows, где отображённый файл заменить нельзя.
+ */
+public class PurgeJournal {
+
+    private static final int MAGIC = 0x424C534A; // "BLSJ"
+    private static final int HEADER = 4 + 8;
+    private static final byte ADD = 1;
+    private static final byte DONE = 2;
+    // Тип + номер + CRC; у ADD ещё длина и имя
+    private static final int DONE_SIZE = 1 + 8 + 4;
+    private static final int ADD_OVERHEAD = 1 + 8 + 2 + 4;
+
+    private final File[] files;
+    private final Logger logger;
+    private final long syncIntervalMs;
+    private final ScheduledExecutorService syncer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "bridge-session-journal");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // Открытые записи в порядке добавления: номер → имя игрока
+    private final Map<Long, String> open = new LinkedHashMap<>();
+    private final MappedByteBuffer[] maps = new MappedByteBuffer[2];
+    private final CRC32 crc = new CRC32();
+    private int capacity;
+    private int active;
+    private long generation;
+    private int position;
+    private long nextSeq = 1;
+    private int openBytes;
+    private volatile boolean dirty;
+
+    /**
+     * @param capacityBytes  начальный размер каждого файла; при нехватке места удваивается
+     * @param syncIntervalMs период группового force()
+     */
+    public PurgeJournal(File dataFolder, Logger logger, int capacityBytes, long syncIntervalMs) throws IOException {
+        dataFolder.mkdirs();
+        this.files = new File[]{new File(dataFolder, "session_journal.0"), new File(dataFolder, "session_journal.1")};
+        this.logger = logger;
+        this.syncIntervalMs = Math.max(1, syncIntervalMs);
+        this.capacity = Math.max(4096, capacityBytes);
+        for (File file : files) {
+            capacity = (int) Math.max(capacity, file.length());
+        }
+        map(capacity);
+        recover();
+    }
+
+    /** Незавершённые записи после запуска: номер → имя игрока */
+    public synchronized Map<Long, String> openEntries() {
+        return new LinkedHashMap<>(open);
+    }
+
+    public void start() {
+        syncer.scheduleWithFixedDelay(this::sync, syncIntervalMs, syncIntervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    /** Запись события смены пароля; возвращает номер для markDone */
+    public synchronized long append(String playerName) {
+        byte[] name = playerName.getBytes(StandardCharsets.UTF_8);
+        int length = Math.min(name.length, 0xFFFF);
+        long seq = nextSeq++;
+        ensureSpace(ADD_OVERHEAD + length);
+        writeAdd(maps[active], seq, name, length);
+        open.put(seq, playerName);
+        openBytes += ADD_OVERHEAD + length;
+        return seq;
+    }
+
+    /** Сессии игрока сброшены: запись больше не нужно повторять при запуске */
+    public synchronized void markDone(long seq) {
+        String name = open.remove(seq);
+        if (name == null) {
+            return;
+        }
+        openBytes -= ADD_OVERHEAD + Math.min(name.getBytes(StandardCharsets.UTF_8).length, 0xFFFF);
+        ensureSpace(DONE_SIZE);
+        MappedByteBuffer map = maps[active];
+        terminate(map, position + DONE_SIZE);
+        map.position(position);
+        map.put(DONE).putLong(seq);
+        map.putInt(checksum(map, position, 1 + 8));
+        position += DONE_SIZE;
+        dirty = true;
+    }
+
+    public synchronized int size() {
+        return open.size();
+    }
+
+    /** Остановка: последний force(); открытые записи останутся для следующего запуска */
+    public void close() {
+        syncer.shutdownNow();
+        synchronized (this) {
+            maps[active].force();
+        }
+    }
+
+    private void sync() {
+        try {
+            if (dirty) {
+                dirty = false;
+                MappedByteBuffer map;
+                synchronized (this) {
+                    map = maps[active];
+                }
+                map.force();
+            }
+            synchronized (this) {
+                // Живые записи занимают меньше половины записанного — пора сжимать
+                if (position > capacity / 2 && openBytes < (position - HEADER) / 2) {
+                    compact();
+                }
+            }
+        } catch (RuntimeException e) {
+            logger.warning("Ошибка синхронизации журнала сброса сессий: " + e);
+        }
+    }
+
+    private void ensureSpace(int bytes) {
+        // Запас в 1 байт под терминатор после записи
+        if (position + bytes + 1 <= capacity) {
+            return;
+        }
+        compact();
+        while (position + bytes + 1 > capacity || HEADER + openBytes + bytes + 1 > capacity / 2) {
+            try {
+                map(capacity * 2);
+            } catch (IOException e) {
+                throw new IllegalStateException("Не удалось увеличить журнал сброса сессий", e);
+            }
+            compact();
+        }
+    }
+
+    /** Перенос открытых записей во второй файл со следующим поколением */
+    private void compact() {
+        int target = 1 - active;
+        MappedByteBuffer map = maps[target];
+        // Прежний заголовок цели недействителен, пока записи не сохранены
+        map.putInt(0, 0);
+        map.force();
+        position = HEADER;
+        for (Map.Entry<Long, String> entry : open.entrySet()) {
+            byte[] name = entry.getValue().getBytes(StandardCharsets.UTF_8);
+            writeAdd(map, entry.getKey(), name, Math.min(name.length, 0xFFFF));
+        }
+        terminate(map, position);
+        map.force();
+        map.putLong(4, generation + 1);
+        map.putInt(0, MAGIC);
+        map.force();
+        generation++;
+        active = target;
+        dirty = false;
+    }
+
+    private void writeAdd(MappedByteBuffer map, long seq, byte[] name, int length) {
+        int size = ADD_OVERHEAD + length;
+        terminate(map, position + size);
+        map.position(position);
+        map.put(ADD).putLong(seq).putShort((short) length).put(name, 0, length);
+        map.putInt(checksum(map, position, size - 4));
+        position += size;
+        dirty = true;
+    }
+
+    // Байт после записи обнуляется до неё самой: чтение остановится здесь, даже если дальше старые данные
+    private void terminate(MappedByteBuffer map, int at) {
+        if (at < capacity) {
+            map.put(at, (byte) 0);
+        }
+    }
+
+    private int checksum(ByteBuffer map, int from, int length) {
+        ByteBuffer slice = map.duplicate();
+        slice.limit(from + length).position(from);
+        crc.reset();
+        crc.update(slice);
+        return (int) crc.getValue();
+    }
+
+    private void map(int size) throws IOException {
+        for (int i = 0; i < files.length; i++) {
+            try (RandomAccessFile file = new RandomAccessFile(files[i], "rw")) {
+                // Отображение остаётся действительным и после закрытия канала
+                maps[i] = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+            }
+        }
+        capacity = size;
+    }
+
+    /** Выбор файла с большим поколением и чтение его записей */
+    private void recover() {
+        long[] generations = new long[2];
+        for (int i = 0; i < 2; i++) {
+            generations[i] = maps[i].getInt(0) == MAGIC ? maps[i].getLong(4) : -1;
+        }
+        if (generations[0] < 0 && generations[1] < 0) {
+            generation = 0;
+            active = 1;
+            compact();
+            return;
+        }
+        active = generations[0] >= generations[1] ? 0 : 1;
+        generation = generations[active];
+        MappedByteBuffer map = maps[active];
+        position = HEADER;
+        List<Long> done = new ArrayList<>();
+        while (position < capacity) {
+            byte type = map.get(position);
+            int size;
+            if (type == ADD && position + ADD_OVERHEAD <= capacity) {
+                size = ADD_OVERHEAD + (map.getShort(position + 9) & 0xFFFF);
+            } else if (type == DONE) {
+                size = DONE_SIZE;
+            } else {
+                break;
+            }
+            if (position + size > capacity || map.getInt(position + size - 4) != checksum(map, position, size - 4)) {
+                logger.warning("Журнал сброса сессий оборван на позиции " + position + ", хвост отброшен");
+                break;
+            }
+            long seq = map.getLong(position + 1);
+            if (type == ADD) {
+                byte[] name = new byte[size - ADD_OVERHEAD];
+                ByteBuffer source = map.duplicate();
+                source.position(position + 11);
+                source.get(name);
+                open.put(seq, new String(name, StandardCharsets.UTF_8));
+                openBytes += size;
+            } else {
+                done.add(seq);
+            }
+            nextSeq = Math.max(nextSeq, seq + 1);
+            position += size;
+        }
+        for (Long seq : done) {
+            String name = open.remove(seq);
+            if (name != null) {
+                openBytes -= ADD_OVERHEAD + name.getBytes(StandardCharsets.UTF_8).length;
+            }
+        }
+        // Оборванный хвост затирается следующей записью
+        terminate(map, position);
+    }
+}
@@ -0,0 +1,552 @@
+package ru.bont777.bridge;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * Обмен событиями между мостами на нескольких прокси за балансировщиком: отзыв JWT после смены пароля
+ * и создание профиля. Каждый узел продолжает отвечать из своей памяти, а события с других узлов
+ * обновляют её так же, как локальные (отзыв в TokenRevocations, имя в ProfileIndex), без чтения базы.
+ * <p>
+ * Узлы — статический список replication_peers. На каждый узел одно исходящее TCP-соединение со своим потоком:
+ * события копятся в ограниченной очереди и уходят пакетом раз в replication_batch_ms. Кадр:
+ * <pre>
+ * magic(4) version(1) node(8) seq(8) sentAt(8) count(2) length(4) события... HMAC-SHA256(32)
+ * событие: type(1) [time(8) для отзыва] nameLength(1) name(UTF-8)
+ * </pre>
+ * Имена длиннее 255 байт в UTF-8 не реплицируются: обрезанное имя указывало бы на другого игрока.
+ * HMAC считается ключом из replication_secret (или jwtSecret, который у всех прокси и так общий): кадр
+ * с неверной подписью закрывает соединение, кадр старше 5 минут или с номером не больше уже принятого
+ * от того же узла (повтор записанного трафика) пропускается. События идемпотентны, поэтому пакет,
+ * не ушедший из-за обрыва, отправляется повторно после переподключения. Полученные события дальше
+ * не пересылаются: список узлов у всех полный.
+ * <p>
+ * Порт по умолчанию слушает только localhost; входящие соединения принимаются лишь с адресов из
+ * replication_peers и не больше двух на узел. Молчащее соединение закрывается через 30 секунд, поэтому
+ * отправитель без событий шлёт пустой кадр раз в 10 секунд.
+ */
+public class Replication {
+
+    private static final int MAGIC = 0x424C5250; // "BLRP"
+    private static final byte VERSION = 1;
+    private static final byte REVOKE = 1;
+    private static final byte PROFILE_CREATED = 2;
+    private static final int HEADER = 4 + 1 + 8 + 8 + 8 + 2 + 4;
+    private static final int MAC_LENGTH = 32;
+    private static final int MAX_BATCH = 1024;
+    private static final int MAX_BODY = MAX_BATCH * (1 + 8 + 1 + 255);
+    private static final long MAX_CLOCK_SKEW_MS = TimeUnit.MINUTES.toMillis(5);
+    private static final long MAX_BACKOFF_MS = 10_000;
+    private static final int READ_TIMEOUT_MS = 30_000;
+    // По одному соединению на узел и запас на переподключение, пока старое не закрылось по таймауту
+    private static final int INBOUND_PER_PEER = 2;
+    private static final long HEARTBEAT_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+    private final BridgeContext plugin;
+    private final long nodeId = new SecureRandom().nextLong();
+    private final AtomicLong seq = new AtomicLong();
+    private final String host;
+    private final int port;
+    private final long batchMs;
+    private final byte[] macKey;
+    private final List<Peer> peers = new ArrayList<>();
+    private final List<BiConsumer<String, Long>> revocationHandlers = new CopyOnWriteArrayList<>();
+    private final List<Consumer<String>> profileHandlers = new CopyOnWriteArrayList<>();
+    // Последний принятый номер кадра по узлу-отправителю
+    private final ConcurrentHashMap<Long, Long> lastSeq = new ConcurrentHashMap<>();
+    private final List<Socket> inbound = new CopyOnWriteArrayList<>();
+    // Адреса узлов из replication_peers и число входящих соединений, допустимых с адреса:
+    // соединения с других адресов закрываются до чтения кадра
+    private final Map<InetAddress, Integer> inboundLimits = new HashMap<>();
+    private final AtomicInteger connectedPeers = new AtomicInteger();
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder received = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private volatile ServerSocket server;
+    private volatile boolean running;
+
+    public Replication(BridgeContext plugin) {
+        this.plugin = plugin;
+        ConfigSnapshot config = plugin.getConfigManager().snapshot();
+        this.host = config.getString("replication_host");
+        this.port = config.getInt("replication_port", 0);
+        this.batchMs = Math.max(1, config.getInt("replication_batch_ms", 10));
+        String secret = config.getString("replication_secret");
+        this.macKey = deriveKey(!secret.isEmpty() ? secret.getBytes(StandardCharsets.UTF_8) : jwtSecretBytes(config.getString("jwtSecret")));
+        int queueSize = Math.max(MAX_BATCH, config.getInt("replication_queue_size", 10000));
+        if (macKey != null) {
+            for (String address : config.getString("replication_peers").split(",")) {
+                if (!address.isBlank()) {
+                    peers.add(new Peer(address.trim(), queueSize));
+                }
+            }
+        } else if (port > 0 || !config.getString("replication_peers").isBlank()) {
+            plugin.getLogger().severe("Репликация выключена: не задан ни replication_secret, ни jwtSecret");
+        }
+
+        MetricsRegistry metrics = plugin.getMetrics();
+        metrics.counterOf("replication_sent_events_total", "Событий, отправленных другим узлам", sent::sum);
+        metrics.counterOf("replication_received_events_total", "Событий, принятых от других узлов", received::sum);
+        metrics.counterOf("replication_dropped_events_total", "Событий, не отправленных из-за переполнения очереди узла", dropped::sum);
+        metrics.counterOf("replication_rejected_frames_total", "Кадров с неверной подписью, устаревших или повторных", rejected::sum);
+        metrics.gauge("replication_peers_connected", "Узлов с открытым исходящим соединением", connectedPeers::get);
+    }
+
+    /** Отзыв: токены name, выданные до atMs, не принимаются ни на одном узле */
+    public void onRevocation(BiConsumer<String, Long> handler) {
+        revocationHandlers.add(handler);
+    }
+
+    /** Профиль name создан на другом узле */
+    public void onProfileCreated(Consumer<String> handler) {
+        profileHandlers.add(handler);
+    }
+
+    public void publishRevocation(String name, long atMs) {
+        publish(REVOKE, name, atMs);
+    }
+
+    public void publishProfileCreated(String name) {
+        publish(PROFILE_CREATED, name, 0L);
+    }
+
+    private void publish(byte type, String name, long atMs) {
+        if (peers.isEmpty()) {
+            return;
+        }
+        byte[] encoded = name.getBytes(StandardCharsets.UTF_8);
+        if (encoded.length > 255) {
+            // Обрезка могла бы разрезать символ UTF-8, и узел применил бы событие к другому имени
+            plugin.logDebug("Событие для имени длиннее 255 байт не реплицируется: {}", name);
+            return;
+        }
+        Event event = new Event(type, encoded, atMs);
+        for (Peer peer : peers) {
+            if (!peer.queue.offer(event)) {
+                dropped.increment();
+            }
+        }
+    }
+
+    public boolean isEnabled() {
+        return macKey != null && (port > 0 || !peers.isEmpty());
+    }
+
+    public void start() {
+        if (!isEnabled()) {
+            return;
+        }
+        running = true;
+        if (port > 0) {
+            for (Peer peer : peers) {
+                try {
+                    for (InetAddress address : InetAddress.getAllByName(peer.host())) {
+                        inboundLimits.merge(address, INBOUND_PER_PEER, Integer::sum);
+                    }
+                } catch (IOException e) {
+                    plugin.getLogger().warning("Не удалось разрешить адрес узла репликации " + peer.address + ": " + e.getMessage());
+                }
+            }
+            try {
+                ServerSocket socket = new ServerSocket();
+                socket.setReuseAddress(true);
+                socket.bind(host.isEmpty() ? new InetSocketAddress(InetAddress.getLoopbackAddress(), port) : new InetSocketAddress(host, port));
+                server = socket;
+                daemon(this::acceptLoop, "bridge-replication-accept").start();
+            } catch (IOException e) {
+                plugin.getLogger().severe("Не удалось открыть порт репликации " + port + ": " + e.getMessage());
+            }
+        }
+        for (Peer peer : peers) {
+            daemon(peer::sendLoop, "bridge-replication-out-" + peer.address).start();
+        }
+        plugin.getLogger().info("Репликация: порт " + (port > 0 ? port : "выключен") + ", узлов " + peers.size());
+    }
+
+    public void stop() {
+        running = false;
+        ServerSocket socket = server;
+        if (socket != null) {
+            closeQuietly(socket);
+        }
+        for (Socket connection : inbound) {
+            closeQuietly(connection);
+        }
+        for (Peer peer : peers) {
+            peer.close();
+        }
+    }
+
+    public long getReceived() {
+        return received.sum();
+    }
+
+    public long getSent() {
+        return sent.sum();
+    }
+
+    private void acceptLoop() {
+        while (running) {
+            try {
+                Socket connection = server.accept();
+                InetAddress address = connection.getInetAddress();
+                if (inboundFrom(address) >= inboundLimits.getOrDefault(address, 0)) {
+                    // Чужой адрес или лишнее соединение с адреса узла не получают потока
+                    plugin.logDebug("Отклонено соединение репликации с {}", connection.getRemoteSocketAddress());
+                    closeQuietly(connection);
+                    continue;
+                }
+                connection.setTcpNoDelay(true);
+                // Молчащее соединение (и соединение без первого кадра) не держит поток дольше таймаута
+                connection.setSoTimeout(READ_TIMEOUT_MS);
+                inbound.add(connection);
+                daemon(() -> receiveLoop(connection), "bridge-replication-in-" + connection.getRemoteSocketAddress()).start();
+            } catch (IOException e) {
+                if (running) {
+                    plugin.getLogger().warning("Ошибка приёма соединения репликации: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    // Соединения добавляет только поток приёма, поэтому подсчёт не отстаёт от проверки
+    private int inboundFrom(InetAddress address) {
+        int count = 0;
+        for (Socket connection : inbound) {
+            if (address.equals(connection.getInetAddress())) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private void receiveLoop(Socket connection) {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(connection.getInputStream()))) {
+            Mac mac = newMac();
+            byte[] header = new byte[HEADER];
+            byte[] body = new byte[256];
+            byte[] expected = new byte[MAC_LENGTH];
+            while (running) {
+                in.readFully(header);
+                ByteBuffer fields = ByteBuffer.wrap(header);
+                if (fields.getInt() != MAGIC || fields.get() != VERSION) {
+                    throw new IOException("неизвестный формат кадра");
+                }
+                long node = fields.getLong();
+                long frameSeq = fields.getLong();
+                long sentAt = fields.getLong();
+                int count = fields.getShort() & 0xFFFF;
+                int length = fields.getInt();
+                if (length < 0 || length > MAX_BODY) {
+                    throw new IOException("длина кадра " + length);
+                }
+                if (body.length < length) {
+                    body = new byte[Math.max(length, body.length * 2)];
+                }
+                in.readFully(body, 0, length);
+                in.readFully(expected);
+                mac.update(header);
+                mac.update(body, 0, length);
+                if (!MessageDigest.isEqual(mac.doFinal(), expected)) {
+                    rejected.increment();
+                    throw new IOException("неверная подпись кадра");
+                }
+                if (Math.abs(System.currentTimeMillis() - sentAt) > MAX_CLOCK_SKEW_MS || !advance(node, frameSeq)) {
+                    // Повтор записанного ранее кадра или расхождение часов: подпись верна, но применять нельзя
+                    rejected.increment();
+                    continue;
+                }
+                apply(body, length, count);
+            }
+        } catch (EOFException e) {
+            // Узел закрыл соединение
+        } catch (IOException e) {
+            if (running) {
+                plugin.getLogger().warning("Соединение репликации " + connection.getRemoteSocketAddress() + " закрыто: " + e.getMessage());
+            }
+        } finally {
+            inbound.remove(connection);
+            closeQuietly(connection);
+        }
+    }
+
+    private boolean advance(long node, long frameSeq) {
+        if (node == nodeId) {
+            // Свой адрес в списке узлов
+            return false;
+        }
+        boolean[] accepted = new boolean[1];
+        lastSeq.compute(node, (key, last) -> {
+            accepted[0] = last == null || frameSeq > last;
+            return accepted[0] ? frameSeq : last;
+        });
+        return accepted[0];
+    }
+
+    private void apply(byte[] body, int length, int count) throws IOException {
+        long now = System.currentTimeMillis();
+        int position = 0;
+        for (int i = 0; i < count; i++) {
+            if (position >= length) {
+                throw new IOException("кадр короче заявленного числа событий");
+            }
+            byte type = body[position++];
+            long atMs = 0;
+            if (type == REVOKE) {
+                if (position + 8 > length) {
+                    throw new IOException("кадр короче заявленного события");
+                }
+                atMs = ByteBuffer.wrap(body, position, 8).getLong();
+                position += 8;
+            } else if (type != PROFILE_CREATED) {
+                throw new IOException("неизвестный тип события " + type);
+            }
+            int nameLength = position < length ? body[position++] & 0xFF : -1;
+            if (nameLength < 0 || position + nameLength > length) {
+                throw new IOException("кадр короче заявленного имени");
+            }
+            String name = new String(body, position, nameLength, StandardCharsets.UTF_8);
+            position += nameLength;
+            received.increment();
+            if (type == REVOKE) {
+                // Момент отзыва не позже своих часов: иначе отставшие часы узла отзовут и токены, выданные после смены пароля
+                long boundary = Math.min(atMs, now);
+                plugin.logDebug("Отзыв JWT {} от другого узла", name);
+                for (BiConsumer<String, Long> handler : revocationHandlers) {
+                    handler.accept(name, boundary);
+                }
+            } else {
+                for (Consumer<String> handler : profileHandlers) {
+                    handler.accept(name);
+                }
+            }
+        }
+    }
+
+    private Mac newMac() {
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(macKey, "HmacSHA256"));
+            return mac;
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("HmacSHA256 недоступен", e);
+        }
+    }
+
+    /** Отдельный ключ для кадров, чтобы подпись репликации не совпадала по назначению с подписью JWT */
+    private static byte[] deriveKey(byte[] secret) {
+        if (secret == null || secret.length == 0) {
+            return null;
+        }
+        try {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(new SecretKeySpec(secret, "HmacSHA256"));
+            return mac.doFinal("baroness-bridge-replication".getBytes(StandardCharsets.US_ASCII));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("HmacSHA256 недоступен", e);
+        }
+    }
+
+    private static byte[] jwtSecretBytes(String jwtSecret) {
+        try {
+            return jwtSecret.isEmpty() ? null : Base64.getDecoder().decode(jwtSecret);
+        } catch (IllegalArgumentException e) {
+            return jwtSecret.getBytes(StandardCharsets.UTF_8);
+        }
+    }
+
+    private static Thread daemon(Runnable task, String name) {
+        Thread thread = new Thread(task, name);
+        thread.setDaemon(true);
+        return thread;
+    }
+
+    private static void closeQuietly(AutoCloseable closeable) {
+        try {
+            closeable.close();
+        } catch (Exception ignored) {
+            // закрытие при остановке
+        }
+    }
+
+    private static final class Event {
+        final byte type;
+        // Имя в UTF-8, не длиннее 255 байт
+        final byte[] name;
+        final long atMs;
+
+        Event(byte type, byte[] name, long atMs) {
+            this.type = type;
+            this.name = name;
+            this.atMs = atMs;
+        }
+    }
+
+    /** Исходящее соединение к одному узлу и очередь событий для него */
+    private final class Peer {
+        final String address;
+        final BlockingQueue<Event> queue;
+        private final List<Event> batch = new ArrayList<>(MAX_BATCH);
+        private volatile Socket socket;
+        private DataOutputStream out;
+        private Mac mac;
+        private long backoffMs;
+        private long lastSentNanos;
+
+        Peer(String address, int queueSize) {
+            this.address = address;
+            this.queue = new ArrayBlockingQueue<>(queueSize);
+        }
+
+        void sendLoop() {
+            mac = newMac();
+            while (running) {
+                try {
+                    if (batch.isEmpty()) {
+                        Event first = queue.poll(1, TimeUnit.SECONDS);
+                        if (first == null) {
+                            // Пустой кадр не даёт узлу закрыть соединение по таймауту чтения
+                            if (socket != null && System.nanoTime() - lastSentNanos >= HEARTBEAT_NANOS) {
+                                send();
+                            }
+                            continue;
+                        }
+                        batch.add(first);
+                        // Окно пакета: события, пришедшие за batchMs, уходят одним кадром
+                        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(batchMs);
+                        long remaining;
+                        while (batch.size() < MAX_BATCH && (remaining = deadline - System.nanoTime()) > 0) {
+                            Event next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                            if (next == null) {
+                                break;
+                            }
+                            batch.add(next);
+                        }
+                        queue.drainTo(batch, MAX_BATCH - batch.size());
+                    }
+                    send();
+                    sent.add(batch.size());
+                    batch.clear();
+                    backoffMs = 0;
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                } catch (IOException e) {
+                    // Пакет остаётся и уйдёт после переподключения
+                    disconnect();
+                    backoffMs = backoffMs == 0 ? 100 : Math.min(MAX_BACKOFF_MS, backoffMs * 2);
+                    if (backoffMs >= MAX_BACKOFF_MS) {
+                        plugin.logDebug("Узел репликации {} недоступен: {}", address, e.getMessage());
+                    }
+                    try {
+                        Thread.sleep(backoffMs);
+                    } catch (InterruptedException interrupted) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                }
+            }
+        }
+
+        private void send() throws IOException {
+            if (socket == null) {
+                connect();
+            }
+            int length = 0;
+            for (Event event : batch) {
+                length += 1 + (event.type == REVOKE ? 8 : 0) + 1 + event.name.length;
+            }
+            ByteArrayOutputStream frame = new ByteArrayOutputStream(HEADER + length);
+            DataOutputStream fields = new DataOutputStream(frame);
+            fields.writeInt(MAGIC);
+            fields.writeByte(VERSION);
+            fields.writeLong(nodeId);
+            fields.writeLong(seq.incrementAndGet());
+            fields.writeLong(System.currentTimeMillis());
+            fields.writeShort(batch.size());
+            fields.writeInt(length);
+            for (Event event : batch) {
+                fields.writeByte(event.type);
+                if (event.type == REVOKE) {
+                    fields.writeLong(event.atMs);
+                }
+                fields.writeByte(event.name.length);
+                fields.write(event.name);
+            }
+            byte[] bytes = frame.toByteArray();
+            out.write(bytes);
+            out.write(mac.doFinal(bytes));
+            out.flush();
+            lastSentNanos = System.nanoTime();
+        }
+
+        String host() {
+            int colon = address.lastIndexOf(':');
+            return colon < 0 ? address : address.substring(0, colon);
+        }
+
+        private void connect() throws IOException {
+            int colon = address.lastIndexOf(':');
+            if (colon < 0) {
+                throw new IOException("адрес узла без порта: " + address);
+            }
+            Socket connection = new Socket();
+            try {
+                connection.connect(new InetSocketAddress(host(), Integer.parseInt(address.substring(colon + 1))), 2000);
+            } catch (IOException | RuntimeException e) {
+                closeQuietly(connection);
+                throw e instanceof IOException ? (IOException) e : new IOException(e.getMessage(), e);
+            }
+            connection.setTcpNoDelay(true);
+            out = new DataOutputStream(new BufferedOutputStream(connection.getOutputStream()));
+            socket = connection;
+            connectedPeers.incrementAndGet();
+            plugin.logDebug("Подключён узел репликации {}", address);
+        }
+
+        private synchronized void disconnect() {
+            Socket connection = socket;
+            if (connection != null) {
+                socket = null;
+                connectedPeers.decrementAndGet();
+                closeQuietly(connection);
+            }
+        }
+
+        void close() {
+            disconnect();
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package ru.bont777.bridge;
+
+import java.util.Arrays;
+
+/**
+ * Этапы одного запроса /api/baronessauth для RequestTraceBuffer: смещения от начала запроса в наносекундах.
+ * Заполняется по ходу цепочки CompletableFuture, завершение этапа даёт happens-before следующему,
+ * поэтому синхронизация не нужна. Непройденный этап остаётся -1.
+ */
+public final class RequestTrace {
+
+    public enum Stage {
+        /** JWT проверен */
+        JWT,
+        /** Тело разобрано, лимиты проверены, цепочка запущена */
+        DISPATCH,
+        /** Профиль найден в BaronessAuth (или поиск пропущен по индексу) */
+        LOOKUP,
+        /** Пароль проверен или профиль создан */
+        AUTH,
+        /** Ответ записан */
+        RESPONSE
+    }
+
+    public enum Outcome {
+        LOGGED_IN, REGISTERED, WRONG_PASSWORD, BAD_REQUEST, THROTTLED, OVERLOADED, ERROR;
+
+        static Outcome of(AuthResult result) {
+            if ("register".equals(result.action)) {
+                return REGISTERED;
+            }
+            if ("login".equals(result.action)) {
+                return LOGGED_IN;
+            }
+            return AuthResult.WRONG_PASSWORD.equals(result.error) ? WRONG_PASSWORD : ERROR;
+        }
+    }
+
+    static final int STAGES = Stage.values().length;
+
+    /** Заглушка при выключенной трассировке: отметки ничего не пишут */
+    static final RequestTrace DISABLED = new RequestTrace(0, 0);
+
+    final long startNanos;
+    final long startEpochMs;
+    final long[] stages;
+
+    RequestTrace(long startNanos, long startEpochMs) {
+        this.startNanos = startNanos;
+        this.startEpochMs = startEpochMs;
+        this.stages = new long[STAGES];
+        Arrays.fill(stages, -1);
+    }
+
+    void mark(Stage stage) {
+        if (this != DISABLED) {
+            stages[stage.ordinal()] = System.nanoTime() - startNanos;
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package ru.bont777.bridge;
+
+import java.lang.invoke.VarHandle;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Кольцевой буфер последних запросов /api/baronessauth без блокировок: время этапов, исход и хеш логина.
+ * Запись занимает номер через getAndIncrement и пишет слот под seqlock: номер слота нечётный, пока идёт запись,
+ * и чётный (2 × номер + 2) после неё. Читатель копирует слот и сверяет номер до и после; слот, который
+ * в это время перезаписывался, пропускается. Если прежняя запись в слот ещё не закончена (буфер обогнали
+ * по кругу), новая отбрасывается, а не ждёт. Память фиксирована, на горячем пути нет выделений.
+ * <p>
+ * Логин хранится только как 64-битный хеш со случайным зерном: найти запросы известного логина можно
+ * (loginHash), восстановить логины из дампа — нет.
+ */
+public class RequestTraceBuffer {
+
+    // Слот: время начала (мс эпохи), хеш логина, исход, общее время (нс), смещения этапов (нс)
+    private static final int START = 0;
+    private static final int LOGIN = 1;
+    private static final int OUTCOME = 2;
+    private static final int TOTAL = 3;
+    private static final int STAGES = 4;
+    private static final int SLOT_WIDTH = STAGES + RequestTrace.STAGES;
+
+    private static final RequestTrace.Outcome[] OUTCOMES = RequestTrace.Outcome.values();
+
+    private final int capacity;
+    private final int mask;
+    private final AtomicLong next = new AtomicLong();
+    private final AtomicLongArray sequences;
+    private final AtomicLongArray data;
+    private final LongAdder dropped = new LongAdder();
+    private final long seed = ThreadLocalRandom.current().nextLong();
+
+    /** @param capacity число слотов, округляется вверх до степени двойки; 0 — трассировка выключена */
+    public RequestTraceBuffer(int capacity) {
+        int requested = Math.max(0, capacity);
+        this.capacity = requested == 0 || Integer.bitCount(requested) == 1 ? requested : Integer.highestOneBit(requested) << 1;
+        this.mask = Math.max(0, this.capacity - 1);
+        this.sequences = new AtomicLongArray(this.capacity);
+        this.data = new AtomicLongArray(this.capacity * SLOT_WIDTH);
+    }
+
+    public boolean isEnabled() {
+        return capacity > 0;
+    }
+
+    /** Новая трассировка или заглушка, если буфер выключен */
+    public RequestTrace begin(long startNanos) {
+        return isEnabled() ? new RequestTrace(startNanos, System.currentTimeMillis()) : RequestTrace.DISABLED;
+    }
+
+    /** Запись завершённого запроса; login может быть null (запрос без логина) */
+    public void record(RequestTrace trace, String login, RequestTrace.Outcome outcome) {
+        if (trace == RequestTrace.DISABLED || !isEnabled()) {
+            return;
+        }
+        long total = System.nanoTime() - trace.startNanos;
+        long ticket = next.getAndIncrement();
+        int slot = (int) (ticket & mask);
+        long writing = ticket * 2 + 1;
+        long sequence = sequences.get(slot);
+        if ((sequence & 1) != 0 || sequence >= writing || !sequences.compareAndSet(slot, sequence, writing)) {
+            dropped.increment();
+            return;
+        }
+        // Нечётный номер виден читателям раньше новых данных слота
+        VarHandle.storeStoreFence();
+        int base = slot * SLOT_WIDTH;
+        data.setOpaque(base + START, trace.startEpochMs);
+        data.setOpaque(base + LOGIN, login != null ? loginHash(login) : 0);
+        data.setOpaque(base + OUTCOME, outcome.ordinal());
+        data.setOpaque(base + TOTAL, total);
+        for (int i = 0; i < RequestTrace.STAGES; i++) {
+            data.setOpaque(base + STAGES + i, trace.stages[i]);
+        }
+        sequences.setRelease(slot, writing + 1);
+    }
+
+    /** Согласованные записи буфера, новые первыми */
+    public List<Entry> recent() {
+        List<Entry> entries = new ArrayList<>();
+        long last = next.get();
+        for (long ticket = last - 1; ticket >= Math.max(0, last - capacity); ticket--) {
+            int slot = (int) (ticket & mask);
+            long expected = ticket * 2 + 2;
+            if (sequences.get(slot) != expected) {
+                // Запись ещё идёт, отброшена или слот уже занят более новой
+                continue;
+            }
+            int base = slot * SLOT_WIDTH;
+            long[] stages = new long[RequestTrace.STAGES];
+            for (int i = 0; i < stages.length; i++) {
+                stages[i] = data.getOpaque(base + STAGES + i);
+            }
+            long start = data.getOpaque(base + START);
+            long loginHash = data.getOpaque(base + LOGIN);
+            long outcome = data.getOpaque(base + OUTCOME);
+            long total = data.getOpaque(base + TOTAL);
+            // Чтения данных не переставляются после повторной проверки номера
+            VarHandle.acquireFence();
+            if (sequences.get(slot) == expected) {
+                entries.add(new Entry(start, loginHash, OUTCOMES[(int) outcome], total, stages));
+            }
+        }
+        return entries;
+    }
+
+    /** Хеш логина в том виде, в каком он хранится в буфере */
+    public long loginHash(String login) {
+        long h = 0xcbf29ce484222325L ^ seed;
+        // Регистр не важен, как и для BaronessAuth; без toLowerCase, чтобы не создавать строку
+        for (int i = 0; i < login.length(); i++) {
+            h ^= Character.toLowerCase(login.charAt(i));
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    /** Копия одной записи буфера */
+    public static final class Entry {
+        public final long startEpochMs;
+        public final long loginHash;
+        public final RequestTrace.Outcome outcome;
+        public final long totalNanos;
+        // Смещения этапов RequestTrace.Stage от начала запроса, -1 — этап не пройден
+        public final long[] stageNanos;
+
+        Entry(long startEpochMs, long loginHash, RequestTrace.Outcome outcome, long totalNanos, long[] stageNanos) {
+            this.startEpochMs = startEpochMs;
+            this.loginHash = loginHash;
+            this.outcome = outcome;
+            this.totalNanos = totalNanos;
+            this.stageNanos = stageNanos;
+        }
+    }
+}
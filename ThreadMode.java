@@ -0,0 +1,60 @@
+package ru.bont777.bridge;
+
+import org.eclipse.jetty.util.BlockingArrayQueue;
+import org.eclipse.jetty.util.VirtualThreads;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.Logger;
+
+/**
+ * Режим потоков для HTTP сервера и фоновых задач (config.yml: thread_mode).
+ * Виртуальные потоки создаются через reflection, чтобы плагин собирался и на JDK < 21.
+ */
+public enum ThreadMode {
+    PLATFORM,
+    VIRTUAL;
+
+    public static ThreadMode fromConfig(String value, Logger logger) {
+        if ("virtual".equalsIgnoreCase(value)) {
+            if (VirtualThreads.areSupported()) {
+                return VIRTUAL;
+            }
+            logger.warning("Виртуальные потоки недоступны в этой JVM (нужна Java 21+), используется thread_mode: platform");
+        }
+        return PLATFORM;
+    }
+
+    /**
+     * Пул потоков Jetty; в режиме VIRTUAL запросы обрабатываются в виртуальных потоках.
+     * queueCapacity > 0 ограничивает очередь задач (при переполнении Jetty закрывает новое соединение
+     * вместо неограниченного роста очереди), 0 — очередь без ограничения.
+     */
+    public QueuedThreadPool newJettyThreadPool(int minThreads, int maxThreads, int queueCapacity) {
+        int max = Math.max(1, maxThreads);
+        int min = Math.max(1, Math.min(minThreads, max));
+        BlockingQueue<Runnable> queue = queueCapacity > 0
+                ? new BlockingArrayQueue<>(Math.min(queueCapacity, Math.max(min, 8)), Math.max(min, 8), queueCapacity)
+                : null;
+        QueuedThreadPool threadPool = new QueuedThreadPool(max, min, 60_000, queue);
+        threadPool.setName("bridge-http");
+        if (this == VIRTUAL) {
+            threadPool.setVirtualThreadsExecutor(VirtualThreads.getDefaultVirtualThreadsExecutor());
+        }
+        return threadPool;
+    }
+
+    /** Исполнитель фоновых задач: поток на задачу (виртуальный) или кеширующий пул */
+    public ExecutorService newTaskExecutor() {
+        if (this == VIRTUAL) {
+            try {
+                return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+            } catch (ReflectiveOperationException e) {
+                throw new IllegalStateException("Не удалось создать исполнитель виртуальных потоков", e);
+            }
+        }
+        return Executors.newCachedThreadPool();
+    }
+}
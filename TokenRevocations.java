@@ -0,0 +1,72 @@
+package ru.bont777.bridge;
+
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Отзыв JWT игрока после смены пароля без обращения к базе: для имени хранится момент not-before,
+ * токены с iat раньше него отклоняются. Проверка — один get из ConcurrentHashMap.
+ * Запись нужна, только пока живы выданные до неё токены, поэтому записи старше времени жизни токена
+ * удаляются при следующем отзыве (не чаще раза в минуту). Состояние в памяти: после перезапуска
+ * прокси отзыв теряется, сессии Laravel при этом уже сброшены PasswordListener.
+ */
+public class TokenRevocations {
+
+    private static final long COMPACT_INTERVAL_MS = 60_000;
+
+    private final ConcurrentHashMap<String, Long> notBefore = new ConcurrentHashMap<>();
+    private final long validityMs;
+    private final AtomicLong nextCompactMs = new AtomicLong();
+    private final LongAdder rejected = new LongAdder();
+
+    /** @param validityMs время жизни токена: дольше запись хранить незачем */
+    public TokenRevocations(long validityMs) {
+        this.validityMs = validityMs;
+    }
+
+    /** Токены, выданные имени до nowMs, перестают приниматься */
+    public void revoke(String username, long nowMs) {
+        // iat в JWT хранится в секундах, и по нему не отличить токен, выданный в ту же секунду до смены
+        // пароля, от выданного после. Граница округляется вверх: отклоняются оба, новый вход через секунду
+        long boundary = nowMs - Math.floorMod(nowMs, 1000L) + 1000;
+        notBefore.merge(key(username), boundary, Math::max);
+        compactIfDue(nowMs);
+    }
+
+    /** Выдан ли токен до последнего отзыва для имени */
+    public boolean isRevoked(String username, long issuedAtMs) {
+        if (username == null || notBefore.isEmpty()) {
+            return false;
+        }
+        Long boundary = notBefore.get(key(username));
+        if (boundary == null || issuedAtMs >= boundary) {
+            return false;
+        }
+        rejected.increment();
+        return true;
+    }
+
+    private void compactIfDue(long nowMs) {
+        long next = nextCompactMs.get();
+        if (nowMs < next || !nextCompactMs.compareAndSet(next, nowMs + COMPACT_INTERVAL_MS)) {
+            return;
+        }
+        // Все токены, выданные до границы, к этому моменту истекли по exp
+        long expired = nowMs - validityMs;
+        notBefore.values().removeIf(boundary -> boundary <= expired);
+    }
+
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    public int size() {
+        return notBefore.size();
+    }
+
+    private static String key(String username) {
+        return username.toLowerCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,168 @@
+package ru.bont777.bridge;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Кеш соответствия имя игрока → id пользователя Laravel.
+ * Заполняется по требованию одним запросом на все отсутствующие имена; имена, которых нет
+ * в таблице, кешируются как отрицательные записи с отдельным (коротким) TTL.
+ */
+public class UserIdCache {
+
+    // Имена таблицы и колонок, участвующие в запросе
+    private static final String[] QUERY_KEYS = {"table_users", "column_user_id", "column_username"};
+
+    private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+    // Настройки заменяются целиком при перезагрузке config.yml
+    private volatile Settings settings;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    public UserIdCache(ConfigManager configManager) {
+        this.settings = new Settings(configManager.snapshot());
+        configManager.addListener((previous, next) -> {
+            settings = new Settings(next);
+            // Другая таблица или база — закешированные id больше не действительны
+            if (!previous.sameValues(next, QUERY_KEYS) || !previous.sameDatabase(next)) {
+                entries.clear();
+            }
+        });
+    }
+
+    /**
+     * Возвращает id для найденных имён (ключи без учёта регистра, как в collation MySQL по умолчанию).
+     * Имена без записи в кеше запрашиваются из базы одним запросом; соединение берётся из пула,
+     * только если такие имена есть.
+     */
+    public Map<String, Integer> resolve(DataSource dataSource, Collection<String> playerNames) throws SQLException {
+        long now = System.currentTimeMillis();
+        Settings settings = this.settings;
+        Map<String, Integer> result = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        List<String> missing = new ArrayList<>();
+        for (String playerName : playerNames) {
+            String key = key(playerName);
+            Entry entry = entries.get(key);
+            if (entry != null && entry.expiresAtMs > now) {
+                hits.increment();
+                if (entry.userId != null) {
+                    result.put(playerName, entry.userId);
+                }
+            } else {
+                if (entry != null) {
+                    entries.remove(key, entry);
+                }
+                misses.increment();
+                missing.add(playerName);
+            }
+        }
+        if (!missing.isEmpty()) {
+            Map<String, Integer> loaded;
+            try (Connection conn = dataSource.getConnection()) {
+                loaded = load(conn, settings, missing);
+            }
+            for (String playerName : missing) {
+                Integer userId = loaded.get(playerName);
+                // Промах в базе заменяет и положительную запись, если она успела устареть
+                put(key(playerName), new Entry(userId, now + (userId != null ? settings.ttlMs : settings.negativeTtlMs)), settings.maxEntries, now);
+                if (userId != null) {
+                    result.put(playerName, userId);
+                }
+            }
+        }
+        return result;
+    }
+
+    public void invalidate(String playerName) {
+        entries.remove(key(playerName));
+    }
+
+    private Map<String, Integer> load(Connection conn, Settings settings, List<String> playerNames) throws SQLException {
+        Map<String, Integer> userIds = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        String sql = settings.findUsersSqlPrefix + "(" + String.join(", ", Collections.nCopies(playerNames.size(), "?")) + ")";
+        try (PreparedStatement pst = conn.prepareStatement(sql)) {
+            for (int i = 0; i < playerNames.size(); i++) {
+                pst.setString(i + 1, playerNames.get(i));
+            }
+            try (ResultSet rs = pst.executeQuery()) {
+                while (rs.next()) {
+                    userIds.put(rs.getString(settings.colUsername), rs.getInt(settings.colUserId));
+                }
+            }
+        }
+        return userIds;
+    }
+
+    private void put(String key, Entry entry, int maxEntries, long now) {
+        if (maxEntries <= 0) {
+            return;
+        }
+        if (entries.size() >= maxEntries) {
+            entries.values().removeIf(e -> e.expiresAtMs <= now);
+            Iterator<String> it = entries.keySet().iterator();
+            while (entries.size() >= maxEntries && it.hasNext()) {
+                it.next();
+                it.remove();
+            }
+        }
+        entries.put(key, entry);
+    }
+
+    private static String key(String playerName) {
+        return playerName.toLowerCase(Locale.ROOT);
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    private static final class Settings {
+        final int maxEntries;
+        final long ttlMs;
+        final long negativeTtlMs;
+        final String colUserId;
+        final String colUsername;
+        final String findUsersSqlPrefix;
+
+        Settings(ConfigSnapshot config) {
+            this.maxEntries = config.getInt("user_id_cache_size", 10000);
+            this.ttlMs = config.getInt("user_id_cache_ttl_seconds", 600) * 1000L;
+            this.negativeTtlMs = config.getInt("user_id_cache_negative_ttl_seconds", 30) * 1000L;
+            this.colUserId = config.getString("column_user_id");
+            this.colUsername = config.getString("column_username");
+            this.findUsersSqlPrefix = "SELECT " + colUserId + ", " + colUsername + " FROM " + config.getString("table_users")
+                    + " WHERE " + colUsername + " IN ";
+        }
+    }
+
+    private static final class Entry {
+        final Integer userId;
+        final long expiresAtMs;
+
+        Entry(Integer userId, long expiresAtMs) {
+            this.userId = userId;
+            this.expiresAtMs = expiresAtMs;
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package ru.bont777.bridge;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Кеш уже проверенных JWT: ключ — SHA-256 токена (128 бит), значение — subject и срок действия.
+ * Запись живёт до exp токена; при переполнении сначала удаляются истёкшие записи.
+ */
+public class VerifiedTokenCache {
+
+    private static final InstancePool<MessageDigest> SHA256 = new InstancePool<>(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    });
+
+    private final ConcurrentHashMap<TokenKey, Entry> entries = new ConcurrentHashMap<>();
+    private final int maxEntries;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    public VerifiedTokenCache(int maxEntries) {
+        this.maxEntries = maxEntries;
+    }
+
+    /** Возвращает запись для ещё действующего токена или null */
+    public Entry get(String token, long nowMs) {
+        if (maxEntries <= 0) {
+            misses.increment();
+            return null;
+        }
+        TokenKey key = TokenKey.of(token);
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            misses.increment();
+            return null;
+        }
+        if (entry.expiresAtMs <= nowMs) {
+            entries.remove(key, entry);
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        return entry;
+    }
+
+    public void put(String token, String subject, long issuedAtMs, long expiresAtMs, long nowMs) {
+        if (maxEntries <= 0 || expiresAtMs <= nowMs) {
+            return;
+        }
+        if (entries.size() >= maxEntries) {
+            evict(nowMs);
+        }
+        entries.put(TokenKey.of(token), new Entry(subject, issuedAtMs, expiresAtMs));
+    }
+
+    private void evict(long nowMs) {
+        entries.values().removeIf(entry -> entry.expiresAtMs <= nowMs);
+        Iterator<TokenKey> it = entries.keySet().iterator();
+        while (entries.size() >= maxEntries && it.hasNext()) {
+            it.next();
+            it.remove();
+        }
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public static final class Entry {
+        public final String subject;
+        public final long issuedAtMs;
+        public final long expiresAtMs;
+
+        Entry(String subject, long issuedAtMs, long expiresAtMs) {
+            this.subject = subject;
+            this.issuedAtMs = issuedAtMs;
+            this.expiresAtMs = expiresAtMs;
+        }
+    }
+
+    private static final class TokenKey {
+        private final long high;
+        private final long low;
+
+        private TokenKey(long high, long low) {
+            this.high = high;
+            this.low = low;
+        }
+
+        static TokenKey of(String token) {
+            byte[] bytes = token.getBytes(StandardCharsets.UTF_8);
+            MessageDigest digest = SHA256.acquire();
+            ByteBuffer hash;
+            try {
+                hash = ByteBuffer.wrap(digest.digest(bytes));
+            } finally {
+                SHA256.release(digest);
+            }
+            return new TokenKey(hash.getLong(), hash.getLong());
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof TokenKey)) return false;
+            TokenKey other = (TokenKey) o;
+            return high == other.high && low == other.low;
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(high ^ low);
+        }
+    }
+}
@@ -0,0 +1,176 @@
+package ru.bont777.bridge;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Проверка асинхронного /api/baronessauth (main-класс, код выхода 1 при ошибке): сотни одновременных запросов
+ * к HttpServerManager на StubBaronessAuth.
+ * <p>
+ * Транзакции заглушки задерживаются, пока их не накопится больше, чем потоков в пуле Jetty по умолчанию: если обработчик
+ * снова начнёт ждать транзакцию в потоке Jetty, столько запросов до базы не дойдёт и проверка упадёт
+ * по таймауту. Затем сверяется исход каждого запроса: регистрация, вход, неверный пароль и одновременные
+ * регистрации одного имени с разными паролями (профиль создаёт ровно один запрос).
+ * <p>
+ * Параметры (-D): check.requests=600, check.port=18081.
+ */
+public final class AuthConcurrencyCheck {
+
+    private static final int EXISTING = 50;
+    private static final int RACE_NAMES = 10;
+    /** Больше, чем потоков в пуле Jetty по умолчанию */
+    private static final int GATE_THRESHOLD = 300;
+
+    private AuthConcurrencyCheck() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        int requests = Math.max(2 * GATE_THRESHOLD, Integer.getInteger("check.requests", 600));
+        int port = Integer.getInteger("check.port", 18081);
+
+        BenchContext context = new BenchContext(Map.of("hashing_queue_size", requests));
+        Gate gate = new Gate(GATE_THRESHOLD, ForkJoinPool.commonPool());
+        StubBaronessAuth stub = new StubBaronessAuth(100, ForkJoinPool.commonPool(), gate);
+        for (int i = 0; i < EXISTING; i++) {
+            stub.createProfile("user" + i, "password" + i);
+        }
+        JwtManager jwtManager = context.newJwtManager();
+        HttpServerManager server = new HttpServerManager(context, stub.api(), jwtManager, ThreadMode.PLATFORM);
+        server.start(port);
+
+        // Четверть — новые имена, четверть — верный пароль, четверть — неверный,
+        // четверть — одновременные регистрации RACE_NAMES имён с разными паролями
+        List<String[]> bodies = new ArrayList<>(requests);
+        int quarter = requests / 4;
+        for (int i = 0; i < requests; i++) {
+            int group = Math.min(3, i / quarter);
+            int n = i - group * quarter;
+            switch (group) {
+                case 0:
+                    bodies.add(new String[]{"new" + n, "secret" + n});
+                    break;
+                case 1:
+                    bodies.add(new String[]{"user" + n % EXISTING, "password" + n % EXISTING});
+                    break;
+                case 2:
+                    bodies.add(new String[]{"user" + n % EXISTING, "wrong" + n});
+                    break;
+                default:
+                    bodies.add(new String[]{"race" + n % RACE_NAMES, "race-password" + n});
+            }
+        }
+
+        String bearer = "Bearer " + jwtManager.generateToken("laravel");
+        URI uri = URI.create("http://127.0.0.1:" + port + "/api/baronessauth");
+        HttpClient client = HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(5)).build();
+        List<CompletableFuture<HttpResponse<String>>> responses = new ArrayList<>(requests);
+        for (String[] body : bodies) {
+            responses.add(client.sendAsync(HttpRequest.newBuilder(uri)
+                    .header("Authorization", bearer)
+                    .header("Content-Type", "application/json")
+                    .POST(HttpRequest.BodyPublishers.ofString("{\"login\":\"" + body[0] + "\",\"password\":\"" + body[1] + "\"}"))
+                    .build(), HttpResponse.BodyHandlers.ofString()));
+        }
+        CompletableFuture.allOf(responses.toArray(new CompletableFuture<?>[0])).get(60, TimeUnit.SECONDS);
+
+        List<String> failures = new ArrayList<>();
+        if (!gate.openedByCount) {
+            failures.add("до базы одновременно дошло меньше " + gate.threshold + " запросов: обработчик блокирует поток Jetty");
+        }
+        int[] raceRegistrations = new int[RACE_NAMES];
+        for (int i = 0; i < requests; i++) {
+            HttpResponse<String> response = responses.get(i).join();
+            String login = bodies.get(i)[0];
+            if (response.statusCode() != 200) {
+                failures.add(login + ": статус " + response.statusCode() + " " + response.body());
+                continue;
+            }
+            JsonObject result = JsonParser.parseString(response.body()).getAsJsonObject();
+            String action = result.has("action") ? result.get("action").getAsString() : null;
+            boolean ok = AuthResult.STATUS_OK.equals(result.get("status").getAsString()) && result.has("jwt");
+            int group = Math.min(3, i / quarter);
+            if (group == 0 && !(ok && "register".equals(action))) {
+                failures.add(login + ": ожидалась регистрация, получено " + response.body());
+            } else if (group == 1 && !(ok && "login".equals(action))) {
+                failures.add(login + ": ожидался вход, получено " + response.body());
+            } else if (group == 2 && (ok || result.has("jwt"))) {
+                failures.add(login + ": неверный пароль принят " + response.body());
+            } else if (group == 3 && ok) {
+                if (!"register".equals(action)) {
+                    failures.add(login + ": вход с паролем другой регистрации " + response.body());
+                }
+                raceRegistrations[Integer.parseInt(login.substring(4))]++;
+            }
+        }
+        for (int k = 0; k < RACE_NAMES; k++) {
+            if (raceRegistrations[k] != 1) {
+                failures.add("race" + k + ": профиль создан " + raceRegistrations[k] + " раз вместо одного");
+            }
+        }
+        int expectedProfiles = EXISTING + quarter + RACE_NAMES;
+        if (stub.profileCount() != expectedProfiles) {
+            failures.add("профилей " + stub.profileCount() + " вместо " + expectedProfiles);
+        }
+
+        server.stop();
+        if (failures.isEmpty()) {
+            System.out.println("OK: " + requests + " одновременных запросов, до базы одновременно дошло " + gate.threshold);
+            System.exit(0);
+        }
+        failures.stream().limit(20).forEach(System.out::println);
+        System.out.println("Ошибок: " + failures.size());
+        System.exit(1);
+    }
+
+    /** Исполнитель транзакций заглушки: задачи ждут, пока их не наберётся threshold (или 10 секунд) */
+    private static final class Gate implements Executor {
+        final int threshold;
+        private final Executor delegate;
+        private final List<Runnable> held = new ArrayList<>();
+        private boolean open;
+        volatile boolean openedByCount;
+
+        Gate(int threshold, Executor delegate) {
+            this.threshold = threshold;
+            this.delegate = delegate;
+            CompletableFuture.delayedExecutor(10, TimeUnit.SECONDS).execute(this::release);
+        }
+
+        @Override
+        public void execute(Runnable task) {
+            synchronized (this) {
+                if (!open) {
+                    held.add(task);
+                    if (held.size() >= threshold) {
+                        openedByCount = true;
+                        release();
+                    }
+                    return;
+                }
+            }
+            delegate.execute(task);
+        }
+
+        private synchronized void release() {
+            if (open) {
+                return;
+            }
+            open = true;
+            held.forEach(delegate::execute);
+            held.clear();
+        }
+    }
+}
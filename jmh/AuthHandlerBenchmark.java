@@ -0,0 +1,53 @@
+package ru.bont777.bridge;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Map;
+
+/**
+ * Полный путь AuthService.authenticate (поиск профиля, хеширование, ответ)
+ * на заглушке BaronessAuth с настраиваемой стоимостью хеширования.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(8)
+public class AuthHandlerBenchmark {
+
+    @Param({"1", "1000"})
+    public int hashCost;
+
+    private AuthService authService;
+
+    @Setup
+    public void setup() throws Exception {
+        BenchContext context = new BenchContext(Map.of(
+                "hashing_parallelism", Runtime.getRuntime().availableProcessors(),
+                "hashing_queue_size", 100_000));
+        StubBaronessAuth stub = new StubBaronessAuth(hashCost);
+        stub.createProfile("player", "secret");
+        authService = new AuthService(context, stub.api(), context.newJwtManager());
+    }
+
+    @Benchmark
+    public AuthResult login() {
+        return authService.authenticate("player", "secret").join();
+    }
+
+    @Benchmark
+    public AuthResult wrongPassword() {
+        return authService.authenticate("player", "wrong").join();
+    }
+}
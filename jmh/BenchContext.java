@@ -0,0 +1,100 @@
+package ru.bont777.bridge;
+
+import javax.sql.DataSource;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Base64;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * BridgeContext для запуска компонентов вне BungeeCord: временный config.yml,
+ * отдельный реестр метрик, логгер без вывода и (по запросу) пул соединений.
+ */
+final class BenchContext implements BridgeContext {
+
+    private final Logger logger = Logger.getLogger("BaronessLaravelBridge-bench");
+    private final ConfigManager configManager;
+    private final MetricsRegistry metrics = new MetricsRegistry();
+    private DatabaseManager databaseManager;
+    private UserIdCache userIdCache;
+    private final Replication replication;
+
+    BenchContext(Map<String, Object> overrides) throws IOException {
+        logger.setLevel(Level.WARNING);
+        File dataFolder = Files.createTempDirectory("bridge-bench").toFile();
+        dataFolder.deleteOnExit();
+        configManager = new ConfigManager(dataFolder, logger);
+        configManager.load();
+        // Фиксированный 256-битный секрет, чтобы токены были сравнимы между запусками
+        configManager.setValue("jwtSecret", Base64.getEncoder().encodeToString(new byte[32]));
+        // Стенд гоняет одни и те же логины, лимит попыток исказил бы результаты
+        configManager.setValue("auth_throttle_login_limit", 0);
+        overrides.forEach(configManager::setValue);
+        // Без replication_peers и replication_port канал выключен; стенд репликации запускает его сам
+        replication = new Replication(this);
+    }
+
+    /** Пул HikariCP и кеш id пользователей по текущему конфигу (db_jdbc_url) */
+    void startDatabase() {
+        databaseManager = new DatabaseManager(this, configManager.getConfigMap());
+        databaseManager.init();
+        userIdCache = new UserIdCache(configManager);
+    }
+
+    void stopDatabase() {
+        if (databaseManager != null) {
+            databaseManager.shutdown();
+        }
+    }
+
+    JwtManager newJwtManager() {
+        return new JwtManager(configManager.getString("jwtSecret"), logger, configManager);
+    }
+
+    @Override
+    public Logger getLogger() {
+        return logger;
+    }
+
+    @Override
+    public boolean isDebug() {
+        return false;
+    }
+
+    @Override
+    public void logDebug(String message) {
+    }
+
+    @Override
+    public ConfigManager getConfigManager() {
+        return configManager;
+    }
+
+    @Override
+    public MetricsRegistry getMetrics() {
+        return metrics;
+    }
+
+    @Override
+    public DatabaseManager getDatabaseManager() {
+        return databaseManager;
+    }
+
+    @Override
+    public DataSource getDataSource() {
+        return databaseManager.getDataSource();
+    }
+
+    @Override
+    public UserIdCache getUserIdCache() {
+        return userIdCache;
+    }
+
+    @Override
+    public Replication getReplication() {
+        return replication;
+    }
+}
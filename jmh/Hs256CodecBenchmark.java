@@ -0,0 +1,122 @@
+package ru.bont777.bridge;
+
+import io.jsonwebtoken.JwtParser;
+import io.jsonwebtoken.Jwts;
+import io.jsonwebtoken.SignatureAlgorithm;
+import io.jsonwebtoken.security.Keys;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.crypto.SecretKey;
+import java.util.Date;
+
+/**
+ * Выпуск и проверка HS256-токена: jjwt против Hs256TokenCodec (сравнивать ops/s и gc.alloc.rate.norm).
+ * setup сверяет токены codec с jjwt байт в байт для набора имён и отказывается запускаться при расхождении;
+ * тот же набор можно прогнать без JMH через main.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class Hs256CodecBenchmark {
+
+    private static final long VALIDITY_MS = 3600_000;
+    // Имена, для которых codec выпускает токен сам, и имена, которые он отдаёт jjwt
+    private static final String[] SUBJECTS = {"laravel", "Player_123", "a", "ab", "abc", "Игрок", "名前", "a b", "x<y>&='z'"};
+    private static final String[] FALLBACK_SUBJECTS = {"quote\"", "back\\slash", "tab\t", "line\u2028", "lone\ud800", "", "  "};
+
+    private SecretKey key;
+    private JwtParser parser;
+    private Hs256TokenCodec codec;
+    private String token;
+    private long now;
+
+    @Setup
+    public void setup() {
+        key = Keys.secretKeyFor(SignatureAlgorithm.HS256);
+        parser = Jwts.parserBuilder().setSigningKey(key).build();
+        codec = new Hs256TokenCodec(key);
+        verifyCompatibility(key, codec);
+        now = System.currentTimeMillis();
+        token = codec.encode("laravel", now, now + VALIDITY_MS);
+    }
+
+    static void verifyCompatibility(SecretKey key, Hs256TokenCodec codec) {
+        JwtParser parser = Jwts.parserBuilder().setSigningKey(key).build();
+        long[] instants = {System.currentTimeMillis(), 0L, 999L, 1_000L, 1_700_000_000_999L, 253_402_300_799_000L};
+        for (String subject : SUBJECTS) {
+            for (long instant : instants) {
+                String expected = jjwt(key, subject, instant);
+                String actual = codec.encode(subject, instant, instant + VALIDITY_MS);
+                if (!expected.equals(actual)) {
+                    throw new IllegalStateException("Токен codec отличается от jjwt для «" + subject + "»: " + actual + " != " + expected);
+                }
+                VerifiedTokenCache.Entry decoded = codec.decode(expected);
+                if (decoded == null || !subject.equals(decoded.subject)
+                        || decoded.issuedAtMs != instant / 1000 * 1000
+                        || decoded.expiresAtMs != (instant + VALIDITY_MS) / 1000 * 1000) {
+                    throw new IllegalStateException("codec не разобрал токен jjwt для «" + subject + "»");
+                }
+                // Последний символ подписи несёт значащие биты: изменённый токен должен отвергаться
+                String tampered = expected.substring(0, expected.length() - 1) + (expected.endsWith("A") ? "Q" : "A");
+                if (codec.decode(tampered) != null) {
+                    throw new IllegalStateException("codec принял токен с неверной подписью");
+                }
+            }
+        }
+        for (String subject : FALLBACK_SUBJECTS) {
+            if (codec.encode(subject, 0L, VALIDITY_MS) != null) {
+                throw new IllegalStateException("codec должен отдать «" + subject + "» jjwt");
+            }
+            String escaped = jjwt(key, subject, System.currentTimeMillis());
+            VerifiedTokenCache.Entry decoded = codec.decode(escaped);
+            if (decoded != null && !decoded.subject.equals(parser.parseClaimsJws(escaped).getBody().getSubject())) {
+                throw new IllegalStateException("codec разобрал «" + subject + "» иначе, чем jjwt");
+            }
+        }
+    }
+
+    private static String jjwt(SecretKey key, String subject, long now) {
+        return Jwts.builder()
+                .setSubject(subject)
+                .setIssuedAt(new Date(now))
+                .setExpiration(new Date(now + VALIDITY_MS))
+                .signWith(key, SignatureAlgorithm.HS256)
+                .compact();
+    }
+
+    @Benchmark
+    public String encodeJjwt() {
+        return jjwt(key, "laravel", now);
+    }
+
+    @Benchmark
+    public String encodeCodec() {
+        return codec.encode("laravel", now, now + VALIDITY_MS);
+    }
+
+    @Benchmark
+    public String decodeJjwt() {
+        return parser.parseClaimsJws(token).getBody().getSubject();
+    }
+
+    @Benchmark
+    public String decodeCodec() {
+        return codec.decode(token).subject;
+    }
+
+    public static void main(String[] args) {
+        SecretKey key = Keys.secretKeyFor(SignatureAlgorithm.HS256);
+        verifyCompatibility(key, new Hs256TokenCodec(key));
+        System.out.println("Hs256TokenCodec совместим с jjwt: " + SUBJECTS.length + " имён, " + FALLBACK_SUBJECTS.length + " через jjwt");
+    }
+}
@@ -0,0 +1,93 @@
+package ru.bont777.bridge;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * POST /api/baronessauth через настоящий Jetty-коннектор: HTTP/1.1 с keep-alive (пул соединений клиента)
+ * против h2c (все запросы мультиплексируются в одном соединении). Сервер запускается с http_h2c: true,
+ * протокол выбирает клиент. 16 потоков имитируют параллельные вызовы из воркеров Laravel.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 3)
+@Measurement(iterations = 5, time = 3)
+@Fork(1)
+@Threads(16)
+public class HttpProtocolBenchmark {
+
+    private static final int PORT = 18081;
+
+    @Param({"HTTP_1_1", "HTTP_2"})
+    public String protocol;
+
+    @Param({"1", "1000"})
+    public int hashCost;
+
+    private HttpServerManager server;
+    private HttpClient client;
+    private HttpRequest request;
+
+    @Setup
+    public void setup() throws Exception {
+        BenchContext context = new BenchContext(Map.of(
+                "http_h2c", true,
+                "hashing_parallelism", Runtime.getRuntime().availableProcessors(),
+                "hashing_queue_size", 100_000));
+        StubBaronessAuth stub = new StubBaronessAuth(hashCost);
+        stub.createProfile("player", "secret");
+        JwtManager jwtManager = context.newJwtManager();
+        server = new HttpServerManager(context, stub.api(), jwtManager, ThreadMode.PLATFORM);
+        server.start(PORT);
+
+        client = HttpClient.newBuilder()
+                .version(HttpClient.Version.valueOf(protocol))
+                .connectTimeout(Duration.ofSeconds(5))
+                .build();
+        request = HttpRequest.newBuilder(URI.create("http://127.0.0.1:" + PORT + "/api/baronessauth"))
+                .header("Authorization", "Bearer " + jwtManager.generateToken("laravel"))
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString("{\"login\":\"player\",\"password\":\"secret\"}"))
+                .build();
+
+        // JDK HttpClient переходит на h2c (Upgrade) только на запросе без тела, поэтому соединение
+        // открывается GET-запросом, а POST-запросы идут уже по нему
+        HttpRequest warmup = HttpRequest.newBuilder(URI.create("http://127.0.0.1:" + PORT + "/.well-known/jwks.json")).GET().build();
+        client.send(warmup, HttpResponse.BodyHandlers.discarding());
+        HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+        if (response.statusCode() != 200 || !response.version().name().equals(protocol)) {
+            throw new IllegalStateException("Ожидался ответ 200 по " + protocol + ", получен "
+                    + response.statusCode() + " по " + response.version() + ": " + response.body());
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        server.stop();
+    }
+
+    @Benchmark
+    public int login() throws Exception {
+        return client.send(request, HttpResponse.BodyHandlers.discarding()).statusCode();
+    }
+}
@@ -0,0 +1,78 @@
+package ru.bont777.bridge;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Map;
+
+/**
+ * Выпуск и проверка JWT: JwtManager (с кешем и без) и JwtService.
+ * Заголовок Authorization разбирается так же, как в jwtAuthMiddleware.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JwtBenchmark {
+
+    @Param({"10000", "0"})
+    public int jwtCacheSize;
+
+    @Param({"HS256", "ES256"})
+    public String jwtAlgorithm;
+
+    private JwtManager jwtManager;
+    private JwtService jwtService;
+    private String token;
+    private String serviceToken;
+    private String authHeader;
+
+    @Setup
+    public void setup() throws Exception {
+        BenchContext context = new BenchContext(Map.of("jwt_cache_size", jwtCacheSize, "jwt_algorithm", jwtAlgorithm));
+        jwtManager = context.newJwtManager();
+        jwtService = new JwtService(jwtManager.getKey());
+        token = jwtManager.generateToken("laravel");
+        serviceToken = jwtService.generateToken("laravel");
+        authHeader = "Bearer " + token;
+    }
+
+    @Benchmark
+    public String generateToken() {
+        return jwtManager.generateToken("laravel");
+    }
+
+    @Benchmark
+    public String validateToken() {
+        return jwtManager.validateTokenAndGetUsername(token);
+    }
+
+    @Benchmark
+    public String middlewareHeaderAndValidate() {
+        return jwtManager.validateTokenAndGetUsername(HttpServerManager.extractBearerToken(authHeader));
+    }
+
+    @Benchmark
+    public String middlewareHeaderOnly() {
+        return HttpServerManager.extractBearerToken(authHeader);
+    }
+
+    @Benchmark
+    public String serviceGenerateToken() {
+        return jwtService.generateToken("laravel");
+    }
+
+    @Benchmark
+    public String serviceValidateToken() {
+        return jwtService.validateTokenAndGetUsername(serviceToken);
+    }
+}
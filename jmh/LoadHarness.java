@@ -0,0 +1,236 @@
+package ru.bont777.bridge;
+
+import org.eclipse.jetty.util.VirtualThreads;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+
+/**
+ * Нагрузочный стенд без BungeeCord и MySQL: HttpServerManager, JwtManager, DatabaseManager и PasswordListener
+ * поднимаются на заглушке BaronessAuth и встроенной H2 в режиме MySQL со схемой users/sessions/профилей из config.yml.
+ * <p>
+ * Нагрузка открытой модели: запросы к /api/baronessauth отправляются по расписанию с частотой harness.rate,
+ * задержка считается от запланированного момента отправки (без coordinated omission).
+ * Параллельно с частотой harness.eventRate генерируются смены пароля для PasswordListener.
+ * <p>
+ * Параметры (-D): harness.rate=500, harness.duration=30, harness.users=1000, harness.hashCost=1000,
+ * harness.registerRatio=0.05, harness.wrongRatio=0.05, harness.eventRate=50, harness.port=18080,
+ * harness.warmup=10 (секунд нагрузки до замера),
+ * harness.threadMode=platform (platform, virtual или both — оба режима подряд на свежей базе и заглушке
+ * со сводной таблицей в конце; virtual и both требуют Java 21, иначе стенд сразу завершается с ошибкой).
+ */
+public final class LoadHarness {
+
+    private LoadHarness() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        String mode = System.getProperty("harness.threadMode", "platform");
+        int port = Integer.getInteger("harness.port", 18080);
+        if (!"platform".equalsIgnoreCase(mode) && !VirtualThreads.areSupported()) {
+            // Иначе ThreadMode откатится на platform и прогон "virtual" измерит платформенные потоки
+            System.err.println("harness.threadMode=" + mode + " требует виртуальных потоков (Java 21+), в этой JVM их нет");
+            System.exit(1);
+        }
+        if (!"both".equalsIgnoreCase(mode)) {
+            run(mode, port);
+            System.exit(0);
+        }
+        String platform = run("platform", port);
+        String virtual = run("virtual", port + 1);
+        System.out.println("thread_mode  throughput   p50 ms    p99 ms   p999 ms");
+        System.out.println(platform);
+        System.out.println(virtual);
+        System.exit(0);
+    }
+
+    /** Один прогон в режиме threadMode; возвращает строку сводной таблицы */
+    private static String run(String threadModeName, int port) throws Exception {
+        int rate = Integer.getInteger("harness.rate", 500);
+        int durationSec = Integer.getInteger("harness.duration", 30);
+        int users = Integer.getInteger("harness.users", 1000);
+        int hashCost = Integer.getInteger("harness.hashCost", 1000);
+        double registerRatio = Double.parseDouble(System.getProperty("harness.registerRatio", "0.05"));
+        double wrongRatio = Double.parseDouble(System.getProperty("harness.wrongRatio", "0.05"));
+        int eventRate = Integer.getInteger("harness.eventRate", 50);
+        int warmupSec = Integer.getInteger("harness.warmup", 10);
+
+        BenchContext context = new BenchContext(Map.of(
+                "db_jdbc_url", "jdbc:h2:mem:bridge_" + threadModeName + ";MODE=MySQL;DB_CLOSE_DELAY=-1",
+                "db_user", "sa",
+                "db_password", "",
+                "thread_mode", threadModeName));
+        ConfigManager config = context.getConfigManager();
+        context.startDatabase();
+        createSchema(context, config, users);
+
+        StubBaronessAuth stub = new StubBaronessAuth(hashCost);
+        for (int i = 0; i < users; i++) {
+            stub.createProfile("user" + i, "password" + i);
+        }
+
+        ThreadMode threadMode = ThreadMode.fromConfig(config.getString("thread_mode"), context.getLogger());
+        JwtManager jwtManager = context.newJwtManager();
+        HttpServerManager server = new HttpServerManager(context, stub.api(), jwtManager, threadMode);
+        server.start(port);
+        PasswordListener listener = new PasswordListener(context, config, jwtManager, threadMode);
+
+        String bearer = "Bearer " + jwtManager.generateToken("laravel");
+        URI uri = URI.create("http://127.0.0.1:" + port + "/api/baronessauth");
+        HttpClient client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(5))
+                .build();
+
+        ScheduledExecutorService events = Executors.newSingleThreadScheduledExecutor();
+        LongAdder eventsFired = new LongAdder();
+        if (eventRate > 0) {
+            events.scheduleAtFixedRate(() -> {
+                listener.enqueue("user" + ThreadLocalRandom.current().nextInt(users));
+                eventsFired.increment();
+            }, 0, 1_000_000L / eventRate, TimeUnit.MICROSECONDS);
+        }
+
+        AtomicInteger registered = new AtomicInteger();
+        Supplier<String> bodies = () -> nextBody(users, registerRatio, wrongRatio, registered);
+        if (warmupSec > 0) {
+            // Прогрев JIT и пулов той же нагрузкой, в результаты не попадает
+            offer(client, uri, bearer, rate, new long[rate * warmupSec], new ConcurrentHashMap<>(), new LongAdder(), bodies);
+            eventsFired.reset();
+        }
+
+        int total = rate * durationSec;
+        long[] latencies = new long[total];
+        Map<Integer, LongAdder> statuses = new ConcurrentHashMap<>();
+        LongAdder failures = new LongAdder();
+        long start = System.nanoTime();
+        boolean finished = offer(client, uri, bearer, rate, latencies, statuses, failures, bodies);
+        double elapsedSec = (System.nanoTime() - start) / 1_000_000_000.0;
+        events.shutdownNow();
+
+        System.out.println("=== thread_mode: " + threadMode.name().toLowerCase());
+        String summary = report(threadMode, rate, total, elapsedSec, finished, latencies, statuses, failures.sum(), eventsFired.sum(), context.getMetrics());
+
+        listener.shutdown();
+        server.stop();
+        context.stopDatabase();
+        return summary;
+    }
+
+    /** Открытая модель: latencies.length запросов с частотой rate; false — не все ответы получены за 60 секунд */
+    private static boolean offer(HttpClient client, URI uri, String bearer, int rate, long[] latencies,
+                                 Map<Integer, LongAdder> statuses, LongAdder failures, Supplier<String> bodies) throws InterruptedException {
+        int total = latencies.length;
+        CountDownLatch done = new CountDownLatch(total);
+        long intervalNanos = 1_000_000_000L / rate;
+        long start = System.nanoTime();
+        for (int i = 0; i < total; i++) {
+            long intended = start + i * intervalNanos;
+            long wait = intended - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            HttpRequest request = HttpRequest.newBuilder(uri)
+                    .header("Authorization", bearer)
+                    .header("Content-Type", "application/json")
+                    .POST(HttpRequest.BodyPublishers.ofString(bodies.get()))
+                    .build();
+            int index = i;
+            client.sendAsync(request, HttpResponse.BodyHandlers.discarding()).whenComplete((response, error) -> {
+                latencies[index] = System.nanoTime() - intended;
+                if (error != null) {
+                    failures.increment();
+                } else {
+                    statuses.computeIfAbsent(response.statusCode(), code -> new LongAdder()).increment();
+                }
+                done.countDown();
+            });
+        }
+        return done.await(60, TimeUnit.SECONDS);
+    }
+
+    private static String nextBody(int users, double registerRatio, double wrongRatio, AtomicInteger registered) {
+        double roll = ThreadLocalRandom.current().nextDouble();
+        if (roll < registerRatio) {
+            return "{\"login\":\"new" + registered.getAndIncrement() + "\",\"password\":\"secret\"}";
+        }
+        int user = ThreadLocalRandom.current().nextInt(users);
+        String password = roll < registerRatio + wrongRatio ? "wrong" : "password" + user;
+        return "{\"login\":\"user" + user + "\",\"password\":\"" + password + "\"}";
+    }
+
+    private static void createSchema(BenchContext context, ConfigManager config, int users) throws Exception {
+        String tableUsers = config.getString("table_users");
+        String tableSessions = config.getString("table_sessions");
+        String colUserId = config.getString("column_user_id");
+        String colUsername = config.getString("column_username");
+        String colSessionUserId = config.getString("column_session_user_id");
+        // Таблица профилей BaronessAuth нужна только индексу профилей: из неё загружаются имена при запуске
+        String tableProfiles = config.getString("table_profiles");
+        String colProfileName = config.getString("column_profile_name");
+        try (Connection conn = context.getDataSource().getConnection(); Statement st = conn.createStatement()) {
+            st.execute("CREATE TABLE " + tableUsers + " (" + colUserId + " INT AUTO_INCREMENT PRIMARY KEY, "
+                    + colUsername + " VARCHAR(64) NOT NULL UNIQUE)");
+            st.execute("CREATE TABLE " + tableSessions + " (id VARCHAR(64) PRIMARY KEY, " + colSessionUserId + " INT NOT NULL)");
+            st.execute("CREATE INDEX " + tableSessions + "_user_id ON " + tableSessions + " (" + colSessionUserId + ")");
+            st.execute("CREATE TABLE " + tableProfiles + " (" + colProfileName + " VARCHAR(64) PRIMARY KEY)");
+            try (PreparedStatement insertUser = conn.prepareStatement("INSERT INTO " + tableUsers + " (" + colUsername + ") VALUES (?)");
+                 PreparedStatement insertSession = conn.prepareStatement("INSERT INTO " + tableSessions + " VALUES (?, ?)");
+                 PreparedStatement insertProfile = conn.prepareStatement("INSERT INTO " + tableProfiles + " VALUES (?)")) {
+                for (int i = 0; i < users; i++) {
+                    insertUser.setString(1, "user" + i);
+                    insertUser.addBatch();
+                    insertSession.setString(1, "session" + i);
+                    insertSession.setInt(2, i + 1);
+                    insertSession.addBatch();
+                    insertProfile.setString(1, "user" + i);
+                    insertProfile.addBatch();
+                }
+                insertUser.executeBatch();
+                insertSession.executeBatch();
+                insertProfile.executeBatch();
+            }
+        }
+    }
+
+    private static String report(ThreadMode threadMode, int rate, int total, double elapsedSec, boolean finished, long[] latencies,
+                               Map<Integer, LongAdder> statuses, long failures, long eventsFired, MetricsRegistry metrics) {
+        long[] sorted = latencies.clone();
+        Arrays.sort(sorted);
+        long completed = statuses.values().stream().mapToLong(LongAdder::sum).sum();
+        System.out.printf("offered rate      : %d req/s (%d requests)%n", rate, total);
+        System.out.printf("throughput        : %.1f req/s%s%n", completed / elapsedSec, finished ? "" : " (не все ответы получены)");
+        System.out.printf("latency p50/p99   : %.2f / %.2f ms%n", percentile(sorted, 0.50), percentile(sorted, 0.99));
+        System.out.printf("latency p999/max  : %.2f / %.2f ms%n", percentile(sorted, 0.999), sorted[sorted.length - 1] / 1e6);
+        statuses.forEach((code, count) -> System.out.printf("status %d        : %d (%.2f%%)%n", code, count.sum(), 100.0 * count.sum() / total));
+        System.out.printf("transport errors  : %d (%.2f%%)%n", failures, 100.0 * failures / total);
+        System.out.printf("password events   : %d%n", eventsFired);
+        System.out.println();
+        System.out.println(metrics.scrape());
+        return String.format("%-11s %8.1f/s %9.2f %9.2f %9.2f", threadMode.name().toLowerCase(), completed / elapsedSec,
+                percentile(sorted, 0.50), percentile(sorted, 0.99), percentile(sorted, 0.999));
+    }
+
+    private static double percentile(long[] sorted, double p) {
+        int index = (int) Math.min(sorted.length - 1, Math.ceil(p * sorted.length) - 1);
+        return sorted[Math.max(0, index)] / 1e6;
+    }
+}
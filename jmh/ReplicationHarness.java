@@ -0,0 +1,184 @@
+package ru.bont777.bridge;
+
+import io.jsonwebtoken.JwtException;
+
+import java.io.DataOutputStream;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Стенд репликации (main-класс): несколько мостов в одном процессе, каждый со своим BenchContext,
+ * JwtManager и портом репликации на localhost; узлы знают друг друга через replication_peers.
+ * <p>
+ * Проверяет, что отзыв JWT после смены пароля на одном узле отклоняет токен на всех остальных,
+ * что событие создания профиля доходит до всех узлов и что кадр с чужой подписью отвергается.
+ * Затем узел 0 публикует harness.events отзывов подряд и выводит время доставки всем узлам.
+ * <p>
+ * Параметры (-D): harness.nodes=3, harness.basePort=19100, harness.events=100000, harness.batchMs=10.
+ */
+public final class ReplicationHarness {
+
+    private ReplicationHarness() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        int nodeCount = Math.max(2, Integer.getInteger("harness.nodes", 3));
+        int basePort = Integer.getInteger("harness.basePort", 19100);
+        int eventCount = Integer.getInteger("harness.events", 100_000);
+        int batchMs = Integer.getInteger("harness.batchMs", 10);
+
+        List<Node> nodes = new ArrayList<>();
+        for (int i = 0; i < nodeCount; i++) {
+            int self = i;
+            String peers = IntStream.range(0, nodeCount)
+                    .filter(other -> other != self)
+                    .mapToObj(other -> "127.0.0.1:" + (basePort + other))
+                    .collect(Collectors.joining(","));
+            nodes.add(new Node(new BenchContext(Map.of(
+                    "replication_port", basePort + i,
+                    "replication_host", "127.0.0.1",
+                    "replication_peers", peers,
+                    "replication_batch_ms", batchMs,
+                    "replication_queue_size", Math.max(10_000, eventCount)))));
+        }
+        nodes.forEach(node -> node.replication.start());
+        Node origin = nodes.get(0);
+
+        // Отзыв: токен, выданный узлом 1, проходит везде, пока пароль не сменён на узле 0
+        String token = nodes.get(1).jwtManager.generateToken("player");
+        for (Node node : nodes) {
+            node.jwtManager.validateTokenAndGetUsername(token);
+        }
+        long changedAt = System.currentTimeMillis();
+        origin.jwtManager.revokeTokens("player", changedAt);
+        origin.replication.publishRevocation("player", changedAt);
+        long start = System.nanoTime();
+        for (Node node : nodes.subList(1, nodes.size())) {
+            awaitRejected(node, token);
+        }
+        System.out.printf("Отзыв JWT дошёл до %d узлов за %.1f мс%n", nodeCount - 1, (System.nanoTime() - start) / 1e6);
+
+        // Создание профиля
+        origin.replication.publishProfileCreated("newcomer");
+        start = System.nanoTime();
+        for (Node node : nodes.subList(1, nodes.size())) {
+            awaitCount(node.profilesCreated, 1);
+        }
+        System.out.printf("Создание профиля дошло до %d узлов за %.1f мс%n", nodeCount - 1, (System.nanoTime() - start) / 1e6);
+
+        // Кадр с чужой подписью
+        Node target = nodes.get(1);
+        long rejectedBefore = target.rejectedFrames();
+        try (Socket socket = new Socket("127.0.0.1", basePort + 1);
+             DataOutputStream out = new DataOutputStream(socket.getOutputStream())) {
+            out.writeInt(0x424C5250);
+            out.writeByte(1);
+            out.writeLong(42L);
+            out.writeLong(1L);
+            out.writeLong(System.currentTimeMillis());
+            out.writeShort(1);
+            byte[] name = "player2".getBytes();
+            out.writeInt(1 + 8 + 1 + name.length);
+            out.writeByte(1);
+            out.writeLong(System.currentTimeMillis());
+            out.writeByte(name.length);
+            out.write(name);
+            out.write(new byte[32]);
+            out.flush();
+            long deadline = System.currentTimeMillis() + 5000;
+            while (target.rejectedFrames() == rejectedBefore && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+        }
+        System.out.println("Кадр с чужой подписью " + (target.rejectedFrames() > rejectedBefore ? "отвергнут" : "НЕ отвергнут"));
+
+        // Поток отзывов с узла 0
+        long receivedBefore = nodes.get(1).replication.getReceived();
+        start = System.nanoTime();
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < eventCount; i++) {
+            origin.replication.publishRevocation("user" + i, now);
+        }
+        long published = System.nanoTime() - start;
+        for (Node node : nodes.subList(1, nodes.size())) {
+            awaitReceived(node, receivedBefore + eventCount);
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("%d отзывов: публикация %.1f мс, доставка всем узлам %.1f мс (%.0f событий/с на узел), отброшено при переполнении очереди %d%n",
+                eventCount, published / 1e6, seconds * 1000, eventCount / seconds,
+                metricValue(origin.context, "replication_dropped_events_total"));
+        System.out.println("Отклонено отозванных токенов на узле 1: " + target.jwtManager.getRevokedRejections()
+                + ", записей отзыва: " + target.jwtManager.getRevocationCount());
+
+        nodes.forEach(node -> node.replication.stop());
+        System.exit(0);
+    }
+
+    private static void awaitRejected(Node node, String token) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (System.currentTimeMillis() < deadline) {
+            try {
+                node.jwtManager.validateTokenAndGetUsername(token);
+            } catch (JwtException e) {
+                return;
+            }
+            Thread.sleep(1);
+        }
+        throw new IllegalStateException("Отзыв не дошёл до узла за 10 секунд");
+    }
+
+    private static void awaitCount(LongAdder counter, long expected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (counter.sum() < expected) {
+            if (System.currentTimeMillis() > deadline) {
+                throw new IllegalStateException("Событие не дошло до узла за 10 секунд");
+            }
+            Thread.sleep(1);
+        }
+    }
+
+    private static void awaitReceived(Node node, long expected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 60_000;
+        while (node.replication.getReceived() < expected) {
+            if (System.currentTimeMillis() > deadline) {
+                throw new IllegalStateException("Получено " + node.replication.getReceived() + " из " + expected + " событий за 60 секунд");
+            }
+            Thread.sleep(1);
+        }
+    }
+
+    private static long metricValue(BenchContext context, String metric) {
+        String name = MetricsRegistry.PREFIX + metric + " ";
+        return context.getMetrics().scrape().lines()
+                .filter(line -> line.startsWith(name))
+                .mapToLong(line -> (long) Double.parseDouble(line.substring(name.length())))
+                .findFirst()
+                .orElse(0);
+    }
+
+    /** Мост одного прокси */
+    private static final class Node {
+        final BenchContext context;
+        final JwtManager jwtManager;
+        final Replication replication;
+        final LongAdder profilesCreated = new LongAdder();
+
+        Node(BenchContext context) {
+            this.context = context;
+            this.jwtManager = context.newJwtManager();
+            this.replication = context.getReplication();
+            // Та же подписка, что в BaronessLaravelBridge и AuthService
+            replication.onRevocation(jwtManager::revokeTokens);
+            replication.onProfileCreated(name -> profilesCreated.increment());
+        }
+
+        long rejectedFrames() {
+            return metricValue(context, "replication_rejected_frames_total");
+        }
+    }
+}
@@ -0,0 +1,192 @@
+package ru.bont777.bridge;
+
+import io.github.blackbaroness.baronessauth.bungee.api.BaronessAuthBungeeAPI;
+import io.github.blackbaroness.baronessauth.bungee.api.model.ProfilePassword;
+import io.github.blackbaroness.baronessauth.bungee.api.model.Transaction;
+import io.github.blackbaroness.baronessauth.bungee.api.model.entity.PlayerProfile;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
+
+/**
+ * Заглушка BaronessAuthBungeeAPI в памяти для бенчмарков и нагрузочного стенда.
+ * Хеш пароля — hashCost итераций SHA-256, выполняется в отдельном пуле, как в BaronessAuth.
+ * API, транзакция, профиль и пароль реализуются через java.lang.reflect.Proxy.
+ */
+final class StubBaronessAuth {
+
+    private final Map<String, Profile> profiles = new ConcurrentHashMap<>();
+    private final int hashCost;
+    private final Executor hashExecutor;
+    private final Executor dbExecutor;
+
+    StubBaronessAuth(int hashCost) {
+        this(hashCost, ForkJoinPool.commonPool(), ForkJoinPool.commonPool());
+    }
+
+    StubBaronessAuth(int hashCost, Executor hashExecutor, Executor dbExecutor) {
+        this.hashCost = Math.max(1, hashCost);
+        this.hashExecutor = hashExecutor;
+        this.dbExecutor = dbExecutor;
+    }
+
+    BaronessAuthBungeeAPI api() {
+        return proxy(BaronessAuthBungeeAPI.class, (method, args) -> {
+            switch (method.getName()) {
+                case "inDatabase":
+                    @SuppressWarnings("unchecked")
+                    Consumer<Transaction> body = (Consumer<Transaction>) args[0];
+                    return CompletableFuture.runAsync(() -> body.accept(transaction()), dbExecutor);
+                case "createPassword":
+                    return CompletableFuture.supplyAsync(() -> password(hash((String) args[0])), hashExecutor);
+                case "verifyPassword":
+                    return CompletableFuture.supplyAsync(() -> Arrays.equals(hash((String) args[0]), hashOf(args[1])), hashExecutor);
+                default:
+                    throw new UnsupportedOperationException(method.getName());
+            }
+        });
+    }
+
+    /** Профиль, созданный в обход моста (например, регистрация в игре) */
+    void createProfile(String name, String rawPassword) {
+        Profile profile = new Profile(name);
+        profile.password = password(hash(rawPassword));
+        profiles.put(name.toLowerCase(), profile);
+    }
+
+    int profileCount() {
+        return profiles.size();
+    }
+
+    private Transaction transaction() {
+        return proxy(Transaction.class, (method, args) -> {
+            switch (method.getName()) {
+                case "findProfileByName": {
+                    Profile profile = profiles.get(((String) args[0]).toLowerCase());
+                    return profile == null ? null : profile.view();
+                }
+                case "createProfile": {
+                    Profile profile = new Profile((String) args[0]);
+                    PlayerProfile view = profile.view();
+                    @SuppressWarnings("unchecked")
+                    Consumer<PlayerProfile> init = (Consumer<PlayerProfile>) args[1];
+                    init.accept(view);
+                    profiles.putIfAbsent(profile.name.toLowerCase(), profile);
+                    return method.getReturnType() == void.class ? null : view;
+                }
+                default:
+                    throw new UnsupportedOperationException(method.getName());
+            }
+        });
+    }
+
+    private byte[] hash(String raw) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] value = raw.getBytes(StandardCharsets.UTF_8);
+            for (int i = 0; i < hashCost; i++) {
+                value = digest.digest(value);
+            }
+            return value;
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static ProfilePassword password(byte[] hash) {
+        return (ProfilePassword) Proxy.newProxyInstance(StubBaronessAuth.class.getClassLoader(),
+                new Class<?>[]{ProfilePassword.class}, new PasswordHandler(hash));
+    }
+
+    private static byte[] hashOf(Object password) {
+        if (password == null || !(Proxy.getInvocationHandler(password) instanceof PasswordHandler)) {
+            return new byte[0];
+        }
+        return ((PasswordHandler) Proxy.getInvocationHandler(password)).hash;
+    }
+
+    private static final class PasswordHandler implements InvocationHandler {
+        final byte[] hash;
+
+        PasswordHandler(byte[] hash) {
+            this.hash = hash;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) {
+            switch (method.getName()) {
+                case "hashCode":
+                    return Arrays.hashCode(hash);
+                case "equals":
+                    return Arrays.equals(hash, hashOf(args[0]));
+                case "toString":
+                    return "StubPassword";
+                default:
+                    throw new UnsupportedOperationException(method.getName());
+            }
+        }
+    }
+
+    private final class Profile {
+        final String name;
+        volatile ProfilePassword password;
+        volatile boolean premium;
+
+        Profile(String name) {
+            this.name = name;
+        }
+
+        PlayerProfile view() {
+            return proxy(PlayerProfile.class, (method, args) -> {
+                switch (method.getName()) {
+                    case "getName":
+                        return name;
+                    case "getPassword":
+                        return password;
+                    case "setPassword":
+                        password = (ProfilePassword) args[0];
+                        return null;
+                    case "isPremium":
+                        return premium;
+                    case "setPremium":
+                        premium = (Boolean) args[0];
+                        return null;
+                    case "hashCode":
+                        return name.hashCode();
+                    case "equals":
+                        return args[0] == this;
+                    case "toString":
+                        return "StubProfile(" + name + ")";
+                    default:
+                        throw new UnsupportedOperationException(method.getName());
+                }
+            });
+        }
+    }
+
+    @FunctionalInterface
+    private interface StubHandler extends InvocationHandler {
+        Object call(Method method, Object[] args);
+
+        @Override
+        default Object invoke(Object proxy, Method method, Object[] args) {
+            return call(method, args);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T proxy(Class<T> type, StubHandler handler) {
+        return (T) Proxy.newProxyInstance(StubBaronessAuth.class.getClassLoader(), new Class<?>[]{type}, handler);
+    }
+}
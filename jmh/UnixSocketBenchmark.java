@@ -0,0 +1,222 @@
+package ru.bont777.bridge;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * POST /api/baronessauth по keep-alive соединению HTTP/1.1: TCP loopback против Unix-сокета.
+ * Сервер слушает оба коннектора одновременно, клиент — минимальный HTTP/1.1 поверх SocketChannel
+ * (одинаковый для обоих транспортов, JDK HttpClient Unix-сокеты не поддерживает). У каждого потока
+ * своё соединение, как у воркера php-fpm с постоянным curl-хендлом. hashCost=1, чтобы разница
+ * транспорта не терялась за хешированием. Нужны Java 16+ и org.eclipse.jetty:jetty-unixdomain-server.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 3)
+@Measurement(iterations = 5, time = 3)
+@Fork(1)
+public class UnixSocketBenchmark {
+
+    private static final int PORT = 18082;
+
+    private HttpServerManager server;
+    private Path socketDir;
+    Path socketPath;
+    byte[] request;
+
+    @Setup
+    public void setup() throws Exception {
+        socketDir = Files.createTempDirectory("bridge-uds");
+        socketPath = socketDir.resolve("bridge.sock");
+        BenchContext context = new BenchContext(Map.of(
+                "http_unix_socket_path", socketPath.toString(),
+                "hashing_parallelism", Runtime.getRuntime().availableProcessors(),
+                "hashing_queue_size", 100_000));
+        StubBaronessAuth stub = new StubBaronessAuth(1);
+        stub.createProfile("player", "secret");
+        JwtManager jwtManager = context.newJwtManager();
+        server = new HttpServerManager(context, stub.api(), jwtManager, ThreadMode.PLATFORM);
+        server.start(PORT);
+        if (!Files.exists(socketPath)) {
+            throw new IllegalStateException("Unix-сокет не создан: нужен jetty-unixdomain-server в classpath");
+        }
+
+        byte[] body = "{\"login\":\"player\",\"password\":\"secret\"}".getBytes(StandardCharsets.UTF_8);
+        String head = "POST /api/baronessauth HTTP/1.1\r\n"
+                + "Host: localhost\r\n"
+                + "Authorization: Bearer " + jwtManager.generateToken("laravel") + "\r\n"
+                + "Content-Type: application/json\r\n"
+                + "Content-Length: " + body.length + "\r\n\r\n";
+        byte[] headBytes = head.getBytes(StandardCharsets.US_ASCII);
+        request = new byte[headBytes.length + body.length];
+        System.arraycopy(headBytes, 0, request, 0, headBytes.length);
+        System.arraycopy(body, 0, request, headBytes.length, body.length);
+
+        for (String transport : new String[]{"TCP", "UNIX"}) {
+            try (Connection connection = new Connection(this, transport)) {
+                int status = connection.exchange(request);
+                if (status != 200) {
+                    throw new IllegalStateException("Ожидался ответ 200 по " + transport + ", получен " + status);
+                }
+            }
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        server.stop();
+        Files.deleteIfExists(socketPath);
+        Files.deleteIfExists(socketDir);
+    }
+
+    /** Соединение потока бенчмарка */
+    @State(Scope.Thread)
+    public static class Client {
+
+        @Param({"TCP", "UNIX"})
+        public String transport;
+
+        Connection connection;
+
+        @Setup
+        public void open(UnixSocketBenchmark bench) throws IOException {
+            connection = new Connection(bench, transport);
+        }
+
+        @TearDown
+        public void close() throws IOException {
+            connection.close();
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public int loginSingle(UnixSocketBenchmark bench, Client client) throws IOException {
+        return client.connection.exchange(bench.request);
+    }
+
+    @Benchmark
+    @Threads(16)
+    public int loginParallel(UnixSocketBenchmark bench, Client client) throws IOException {
+        return client.connection.exchange(bench.request);
+    }
+
+    /** Минимальный клиент HTTP/1.1 с keep-alive: Content-Length и chunked */
+    static final class Connection implements AutoCloseable {
+        private final SocketChannel channel;
+        private final ByteBuffer in = ByteBuffer.allocate(16 * 1024);
+
+        Connection(UnixSocketBenchmark bench, String transport) throws IOException {
+            SocketAddress address;
+            if ("UNIX".equals(transport)) {
+                channel = SocketChannel.open(StandardProtocolFamily.UNIX);
+                address = UnixDomainSocketAddress.of(bench.socketPath);
+            } else {
+                channel = SocketChannel.open(StandardProtocolFamily.INET);
+                channel.socket().setTcpNoDelay(true);
+                address = new InetSocketAddress("127.0.0.1", PORT);
+            }
+            channel.connect(address);
+            in.flip();
+        }
+
+        int exchange(byte[] request) throws IOException {
+            ByteBuffer out = ByteBuffer.wrap(request);
+            while (out.hasRemaining()) {
+                channel.write(out);
+            }
+            String statusLine = readLine();
+            int status = Integer.parseInt(statusLine.substring(9, 12));
+            int contentLength = -1;
+            boolean chunked = false;
+            String line;
+            while (!(line = readLine()).isEmpty()) {
+                int colon = line.indexOf(':');
+                String name = line.substring(0, colon).trim();
+                String value = line.substring(colon + 1).trim();
+                if (name.equalsIgnoreCase("Content-Length")) {
+                    contentLength = Integer.parseInt(value);
+                } else if (name.equalsIgnoreCase("Transfer-Encoding") && value.equalsIgnoreCase("chunked")) {
+                    chunked = true;
+                }
+            }
+            if (chunked) {
+                int size;
+                while ((size = Integer.parseInt(readLine().split(";", 2)[0].trim(), 16)) > 0) {
+                    skip(size);
+                    readLine();
+                }
+                while (!readLine().isEmpty()) {
+                    // трейлеры
+                }
+            } else if (contentLength > 0) {
+                skip(contentLength);
+            }
+            return status;
+        }
+
+        private String readLine() throws IOException {
+            StringBuilder line = new StringBuilder();
+            while (true) {
+                if (!in.hasRemaining()) {
+                    fill();
+                }
+                char c = (char) (in.get() & 0xFF);
+                if (c == '\n') {
+                    int length = line.length();
+                    return length > 0 && line.charAt(length - 1) == '\r' ? line.substring(0, length - 1) : line.toString();
+                }
+                line.append(c);
+            }
+        }
+
+        private void skip(int bytes) throws IOException {
+            while (bytes > 0) {
+                if (!in.hasRemaining()) {
+                    fill();
+                }
+                int step = Math.min(bytes, in.remaining());
+                in.position(in.position() + step);
+                bytes -= step;
+            }
+        }
+
+        private void fill() throws IOException {
+            in.clear();
+            if (channel.read(in) < 0) {
+                throw new IOException("Соединение закрыто сервером");
+            }
+            in.flip();
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+}